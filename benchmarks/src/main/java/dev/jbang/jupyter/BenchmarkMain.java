@@ -0,0 +1,25 @@
+package dev.jbang.jupyter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks, writing results as json to jmh-result.json unless
+ * a result format is given, so runs can be compared between releases.
+ *
+ * Accepts the same arguments as org.openjdk.jmh.Main.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.addAll(List.of("-rf", "json"));
+            if (!jmhArgs.contains("-rff")) {
+                jmhArgs.addAll(List.of("-rff", "jmh-result.json"));
+            }
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,51 @@
+package dev.jbang.jupyter;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of deduplicating a classpath that is already fully known to the kernel,
+ * as happens when a cell re-adds jars of an earlier cell.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClasspathBenchmark {
+
+    @Param({ "1000", "10000" })
+    int jars;
+
+    JBangKernel kernel;
+    String classpath;
+
+    @Setup
+    public void setup() {
+        kernel = JBangKernel.jbangBuilder().name("JBang").build();
+        classpath = IntStream.range(0, jars)
+                .mapToObj(i -> "/home/user/.m2/repository/org/example/lib" + i + "/1.0." + i + "/lib" + i + "-1.0." + i + ".jar")
+                .collect(Collectors.joining(File.pathSeparator));
+        kernel.addToClasspath(classpath);
+    }
+
+    @Benchmark
+    public void addKnownClasspath() {
+        kernel.addToClasspath(classpath);
+    }
+}
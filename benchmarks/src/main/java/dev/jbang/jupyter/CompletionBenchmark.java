@@ -0,0 +1,50 @@
+package dev.jbang.jupyter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.dflib.jjava.jupyter.kernel.ReplacementOptions;
+import org.dflib.jjava.jupyter.messages.reply.CompleteReply;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of the complete_reply from completion candidates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionBenchmark {
+
+    @Param({ "20", "500" })
+    int candidates;
+
+    ReplacementOptions options;
+
+    @Setup
+    public void setup() {
+        List<String> replacements = IntStream.range(0, candidates)
+                .mapToObj(i -> i % 3 == 0 ? "method" + i + "(" : i % 3 == 1 ? "%magic" + i : "field" + i)
+                .collect(Collectors.toList());
+        options = new ReplacementOptions(replacements, 10, 14);
+    }
+
+    @Benchmark
+    public CompleteReply buildCompleteReply() {
+        return JBangKernel.buildCompleteReply(options, 14);
+    }
+}
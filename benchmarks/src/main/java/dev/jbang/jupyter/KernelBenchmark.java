@@ -0,0 +1,59 @@
+package dev.jbang.jupyter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-cell overhead of {@link JBangKernel#evalRaw(String)}.
+ *
+ * Dependencies of the //DEPS cell are marked as resolved up front,
+ * so it measures directive handling without any jbang call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+    static final String PLAIN_CELL = "int x = 40 + 2;";
+
+    static final String DEPS_CELL = "//DEPS com.google.code.gson:gson:2.11.0\n"
+            + "//DEPS org.apache.commons:commons-lang3:3.14.0\n"
+            + "int y = 40 + 2;";
+
+    JBangKernel kernel;
+
+    @Setup
+    public void setup() {
+        kernel = JBangKernel.jbangBuilder().name("JBang").build();
+        kernel.resolvedCoordinates.add("com.google.code.gson:gson:2.11.0");
+        kernel.resolvedCoordinates.add("org.apache.commons:commons-lang3:3.14.0");
+    }
+
+    @Benchmark
+    public Object evalPlainCell() {
+        return kernel.evalRaw(PLAIN_CELL);
+    }
+
+    @Benchmark
+    public Object evalResolvedDepsCell() {
+        return kernel.evalRaw(DEPS_CELL);
+    }
+
+    @Benchmark
+    public Directives scanDirectives() {
+        return Directives.scan(DEPS_CELL);
+    }
+}
@@ -0,0 +1,76 @@
+package dev.jbang.jupyter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+import org.dflib.jjava.jupyter.kernel.display.Renderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Rendering of the {@link JBangInfo} summary shown for //DEPS cells, registered and
+ * resolved against the classpath the way {@link JBangKernel} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RendererBenchmark {
+
+    @Param({ "10", "300" })
+    int jars;
+
+    Renderer renderer;
+    Renderer memoizingRenderer;
+    JBangInfo info;
+
+    @Setup
+    public void setup() {
+        renderer = new DelegateRenderer(new Renderer());
+        new JBangInfoRenderer().register(renderer);
+        memoizingRenderer = new DelegateRenderer(new Renderer(), 256);
+
+        List<String> resolved = IntStream.range(0, jars)
+                .mapToObj(i -> "/home/user/.m2/repository/org/example/lib" + i + "/1.0/lib" + i + "-1.0.jar")
+                .collect(Collectors.toList());
+        info = new JBangInfo(resolved, List.of("org.example:lib0:1.0"));
+        // half of the jars are already on the classpath
+        KernelClasspath classpath = new KernelClasspath(KernelClasspath.ConflictPolicy.FIRST_WINS);
+        classpath.addLoaded(resolved.subList(0, jars / 2));
+        info.resolved(classpath.add(resolved));
+    }
+
+    @Benchmark
+    public DisplayData render() {
+        return renderer.render(info);
+    }
+
+    /**
+     * What a progress display in a loop does on every frame.
+     */
+    @Benchmark
+    public DisplayData renderStringAs() {
+        return renderer.renderAs("<b>42%</b>", "text/html", "text/plain");
+    }
+
+    @Benchmark
+    public DisplayData renderStringAsMemoized() {
+        return memoizingRenderer.renderAs("<b>42%</b>", "text/html", "text/plain");
+    }
+}
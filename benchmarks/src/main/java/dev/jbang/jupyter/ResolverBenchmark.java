@@ -0,0 +1,59 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Overhead of a jbang subprocess round trip, using a stub jbang that
+ * prints canned `jbang info tools` output without starting a JVM.
+ * The stub is a shell script, so this benchmark needs a unix-like OS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+
+    static final String INFO_JSON = "{\"dependencies\":[\"com.google.code.gson:gson:2.11.0\"],"
+            + "\"resolvedDependencies\":[\"/home/user/.m2/repository/com/google/code/gson/gson/2.11.0/gson-2.11.0.jar\"]}";
+
+    Path stub;
+    ProcessJBangResolver resolver;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = Files.createTempFile("jbang-stub", ".sh",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwxr-xr-x")));
+        Files.writeString(stub, "#!/bin/sh\ncat > /dev/null\necho '" + INFO_JSON + "'\n");
+        resolver = new ProcessJBangResolver(stub.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(stub);
+    }
+
+    @Benchmark
+    public JBangInfo infoTools() throws IOException {
+        return resolver.info("-", "//DEPS com.google.code.gson:gson:2.11.0", false);
+    }
+}
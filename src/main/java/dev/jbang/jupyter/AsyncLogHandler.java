@@ -0,0 +1,295 @@
+package dev.jbang.jupyter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that hands records to a bounded lock-free ring buffer and writes them
+ * to a file from a single writer thread, in batches.
+ *
+ * Logging threads neither format nor write: they only enqueue, and when the buffer is full
+ * the record is dropped or, with {@link OverflowPolicy#BLOCK}, the thread waits for room.
+ * As records are formatted on the writer thread, their source is set to the logger name
+ * when published instead of being inferred from the stack later.
+ *
+ * The file is rotated when it grows beyond the size limit: {@code file} becomes
+ * {@code file.1}, {@code file.1} becomes {@code file.2} and so on up to the file count.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public enum OverflowPolicy {
+        /** drop records that don't fit, counting them */
+        DROP,
+        /** wait for the writer to make room */
+        BLOCK
+    }
+
+    static final int DEFAULT_CAPACITY = 8192;
+    static final int BATCH_SIZE = 512;
+    static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final Path file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final RingBuffer<LogRecord> buffer;
+    private final Thread writer;
+
+    private volatile OverflowPolicy policy;
+    private volatile boolean running = true;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private volatile long written;
+    private volatile long rotations;
+
+    // only used by the writer thread
+    private OutputStream out;
+    private long fileBytes;
+
+    /**
+     * @param maxBytes size at which the file is rotated, 0 to never rotate
+     * @param maxFiles rotated files to keep besides the current one
+     */
+    public AsyncLogHandler(Path file, long maxBytes, int maxFiles, int capacity, OverflowPolicy policy)
+            throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.policy = policy;
+        this.buffer = new RingBuffer<>(capacity);
+        open();
+        this.writer = new Thread(this::writeLoop, "jbang-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) {
+            return;
+        }
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+        while (!buffer.offer(record)) {
+            if (policy == OverflowPolicy.DROP || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            blocked.incrementAndGet();
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        published.incrementAndGet();
+    }
+
+    /**
+     * Waits until the records published so far are written.
+     */
+    @Override
+    public void flush() {
+        long target = published.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (written < target && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(FLUSH_TIMEOUT_NANOS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        setLevel(Level.OFF);
+    }
+
+    public void setPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return one line summary of the handler's counters
+     */
+    public String getStatistics() {
+        return "policy " + policy.name().toLowerCase() + ", " + written + " written, " + buffer.size() + " queued, "
+                + dropped.get() + " dropped, " + blocked.get() + " waits for room, " + rotations + " rotations"
+                + (maxBytes > 0 ? " (at " + maxBytes + " bytes, keeping " + maxFiles + ")" : "");
+    }
+
+    private void writeLoop() {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        try {
+            while (running || !buffer.isEmpty()) {
+                batch.setLength(0);
+                int count = 0;
+                LogRecord record;
+                while (count < BATCH_SIZE && (record = buffer.poll()) != null) {
+                    format(record, batch);
+                    count++;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                write(batch);
+                written += count;
+            }
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                reportError("Could not close " + file, e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    private void format(LogRecord record, StringBuilder batch) {
+        try {
+            Formatter formatter = getFormatter();
+            batch.append(formatter != null ? formatter.format(record) : record.getMessage() + System.lineSeparator());
+        } catch (RuntimeException e) {
+            reportError("Could not format log record", e, ErrorManager.FORMAT_FAILURE);
+        }
+    }
+
+    private void write(StringBuilder batch) {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (maxBytes > 0 && fileBytes > 0 && fileBytes + bytes.length > maxBytes) {
+                rotate();
+            }
+            out.write(bytes);
+            out.flush();
+            fileBytes += bytes.length;
+        } catch (IOException e) {
+            reportError("Could not write to " + file, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) {
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        rotations++;
+        open();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                StandardOpenOption.WRITE), 64 * 1024);
+        fileBytes = Files.size(file);
+    }
+
+    /**
+     * Bounded multi-producer single-consumer queue. Each slot has a sequence number telling
+     * whether it is free for the producer at a position or filled for the consumer.
+     */
+    static final class RingBuffer<E> {
+        private final int mask;
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.mask = size - 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(E element) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long diff = sequences.get(index) - position;
+                if (diff == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.set(index, element);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * Only called from the consumer thread.
+         */
+        E poll() {
+            long position = head.get();
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            E element = slots.get(index);
+            slots.set(index, null);
+            sequences.set(index, position + mask + 1);
+            head.set(position + 1);
+            return element;
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package dev.jbang.jupyter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the top level class names found in classpath jars, used to answer
+ * "which jar has ObjectMapper?" without asking JShell to scan jars.
+ *
+ * Each jar is scanned once, reading only its central directory, and the result is
+ * persisted next to the jar as {@code <jar>.jbang-classes} (or in the jbang cache when
+ * that isn't writable) so other sessions reuse it. Index files are memory-mapped and
+ * searched in place; names are sorted by simple name so lookups are binary searches.
+ *
+ * Index file layout: magic, version, jar size, jar mtime, count, count offsets
+ * and then for each class: simple name offset (short), length (short), UTF-8 class name.
+ */
+public class ClassIndex {
+
+    static final Logger logger = Logger.getLogger(ClassIndex.class.getName());
+
+    static final String SUFFIX = ".jbang-classes";
+    static final int MAGIC = 0x4A42_4349; // JBCI
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    public record ClassMatch(String className, String jar) {
+    }
+
+    private final Map<String, JarIndex> jars = new ConcurrentHashMap<>();
+    private final Path cacheDir;
+
+    private volatile CompletableFuture<Void> indexing = CompletableFuture.completedFuture(null);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "jbang-class-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ClassIndex(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public static ClassIndex createDefault() {
+        String cacheDir = System.getenv("JBANG_CACHE_DIR");
+        Path base = cacheDir != null ? Path.of(cacheDir)
+                : Path.of(System.getProperty("user.home")).resolve(".jbang/cache");
+        return new ClassIndex(base.resolve("jupyter/classes"));
+    }
+
+    /**
+     * Indexes the jars in the background.
+     */
+    public synchronized void indexAsync(Collection<String> paths) {
+        List<String> jarPaths = paths.stream()
+                .filter(path -> path.endsWith(".jar") && !jars.containsKey(path))
+                .toList();
+        if (!jarPaths.isEmpty()) {
+            indexing = indexing.thenRunAsync(() -> jarPaths.forEach(this::index), executor);
+        }
+    }
+
+    /**
+     * Waits for background indexing to finish.
+     */
+    public void await() {
+        indexing.join();
+    }
+
+    void index(String jar) {
+        if (jars.containsKey(jar)) {
+            return;
+        }
+        try {
+            Path jarPath = Path.of(jar);
+            if (!Files.isRegularFile(jarPath)) {
+                return;
+            }
+            long size = Files.size(jarPath);
+            long mtime = Files.getLastModifiedTime(jarPath).toMillis();
+
+            JarIndex index = null;
+            for (Path file : List.of(indexFileNextTo(jarPath), indexFileInCache(jarPath))) {
+                index = JarIndex.open(file, jar, size, mtime);
+                if (index != null) {
+                    break;
+                }
+            }
+            if (index == null) {
+                byte[] data = build(jarPath, size, mtime);
+                Path written = write(indexFileNextTo(jarPath), data);
+                if (written == null) {
+                    written = write(indexFileInCache(jarPath), data);
+                }
+                index = written != null ? JarIndex.open(written, jar, size, mtime)
+                        : new JarIndex(jar, ByteBuffer.wrap(data));
+            }
+            jars.put(jar, index);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.FINE, "Could not index " + jar, e);
+        }
+    }
+
+    /**
+     * @return classes with exactly the given simple name
+     */
+    public List<ClassMatch> find(String simpleName) {
+        return search(simpleName, true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return classes whose simple name starts with the prefix, sorted by class name
+     */
+    public List<ClassMatch> findByPrefix(String prefix, int limit) {
+        return search(prefix, false, limit);
+    }
+
+    public int size() {
+        return jars.values().stream().mapToInt(JarIndex::count).sum();
+    }
+
+    private List<ClassMatch> search(String name, boolean exact, int limit) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        List<ClassMatch> matches = new ArrayList<>();
+        for (JarIndex index : jars.values()) {
+            index.search(key, exact, matches);
+        }
+        matches.sort(Comparator.comparing(ClassMatch::className));
+        return matches.size() > limit ? matches.subList(0, limit) : matches;
+    }
+
+    private Path indexFileNextTo(Path jar) {
+        return jar.resolveSibling(jar.getFileName() + SUFFIX);
+    }
+
+    private Path indexFileInCache(Path jar) {
+        String name = DependencyCache.sha256(jar.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        return cacheDir.resolve(name + SUFFIX);
+    }
+
+    /**
+     * @return the written file or null if the location isn't writable
+     */
+    private static Path write(Path file, byte[] data) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not write class index " + file, e);
+            return null;
+        }
+    }
+
+    static byte[] build(Path jar, long size, long mtime) throws IOException {
+        TreeSet<String> classNames = new TreeSet<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class") || name.indexOf('$') >= 0
+                        || name.endsWith("module-info.class") || name.endsWith("package-info.class")) {
+                    continue;
+                }
+                if (name.startsWith("META-INF/versions/")) {
+                    int start = name.indexOf('/', "META-INF/versions/".length());
+                    name = name.substring(start + 1);
+                } else if (name.startsWith("META-INF/")) {
+                    continue;
+                }
+                classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+
+        // same bytewise order the lookups use
+        byte[][] names = classNames.stream()
+                .map(name -> name.getBytes(StandardCharsets.UTF_8))
+                .sorted((a, b) -> {
+                    int cmp = Arrays.compareUnsigned(a, simpleNameStart(a), a.length, b, simpleNameStart(b), b.length);
+                    return cmp != 0 ? cmp : Arrays.compareUnsigned(a, b);
+                })
+                .toArray(byte[][]::new);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(size);
+            data.writeLong(mtime);
+            data.writeInt(names.length);
+            int offset = HEADER_SIZE + 4 * names.length;
+            for (byte[] name : names) {
+                data.writeInt(offset);
+                offset += 4 + name.length;
+            }
+            for (byte[] name : names) {
+                data.writeShort(simpleNameStart(name));
+                data.writeShort(name.length);
+                data.write(name);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int simpleNameStart(byte[] name) {
+        for (int i = name.length - 1; i >= 0; i--) {
+            if (name[i] == '.') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A single jar's index, searched in place.
+     */
+    static class JarIndex {
+        private final String jar;
+        private final ByteBuffer buffer;
+        private final int count;
+
+        JarIndex(String jar, ByteBuffer buffer) {
+            this.jar = jar;
+            this.buffer = buffer;
+            this.count = buffer.getInt(HEADER_SIZE - 4);
+        }
+
+        /**
+         * @return the index or null if missing, corrupt or built for another version of the jar
+         */
+        static JarIndex open(Path file, String jar, long size, long mtime) {
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    return null;
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                        || buffer.getLong(8) != size || buffer.getLong(16) != mtime) {
+                    return null;
+                }
+                return new JarIndex(jar, buffer);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not open class index " + file, e);
+                return null;
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        void search(byte[] key, boolean exact, List<ClassMatch> matches) {
+            // lower bound of the first simple name >= key
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareSimpleName(mid, key, false) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < count && compareSimpleName(i, key, !exact) == 0; i++) {
+                matches.add(new ClassMatch(className(i), jar));
+            }
+        }
+
+        /**
+         * Compares the simple name of entry i with the key, bytewise which for UTF-8 is code point order.
+         */
+        private int compareSimpleName(int i, byte[] key, boolean prefix) {
+            int entry = buffer.getInt(HEADER_SIZE + 4 * i);
+            int simpleStart = Short.toUnsignedInt(buffer.getShort(entry));
+            int length = Short.toUnsignedInt(buffer.getShort(entry + 2));
+            int start = entry + 4 + simpleStart;
+            int simpleLength = length - simpleStart;
+            int n = Math.min(simpleLength, key.length);
+            for (int j = 0; j < n; j++) {
+                int cmp = Byte.compareUnsigned(buffer.get(start + j), key[j]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            if (prefix && simpleLength >= key.length) {
+                return 0;
+            }
+            return Integer.compare(simpleLength, key.length);
+        }
+
+        private String className(int i) {
+            int entry = buffer.getInt(HEADER_SIZE + 4 * i);
+            int length = Short.toUnsignedInt(buffer.getShort(entry + 2));
+            byte[] name = new byte[length];
+            buffer.get(entry + 4, name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+    }
+}
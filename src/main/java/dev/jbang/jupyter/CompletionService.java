@@ -0,0 +1,117 @@
+package dev.jbang.jupyter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import org.dflib.jjava.jupyter.kernel.ReplacementOptions;
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+
+/**
+ * Caches the answers to the read-only requests of the editor: completion, inspection and
+ * whether code is complete.
+ *
+ * Results are cached by code, cursor position and classpath generation, so repeated tab
+ * presses or hovers are answered without asking JShell again.
+ *
+ * jjava dispatches shell messages one at a time on its shell thread, so requests are
+ * answered on that thread: they can't overtake each other and wait for a running cell.
+ */
+public class CompletionService {
+
+    static final Logger logger = Logger.getLogger(CompletionService.class.getName());
+
+    static final int MAX_CACHED = 256;
+
+    @FunctionalInterface
+    public interface Completer {
+        ReplacementOptions complete(String code, int at) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Inspector {
+        DisplayData inspect(String code, int at, boolean extraDetail) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface CompletenessChecker {
+        String isComplete(String code) throws Exception;
+    }
+
+    record Key(String prefix, int cursor, long generation) {
+    }
+
+    record InspectKey(String code, int cursor, boolean extraDetail, long generation) {
+    }
+
+    record IsCompleteKey(String code, long generation) {
+    }
+
+    private final Completer completer;
+    private final Inspector inspector;
+    private final CompletenessChecker completenessChecker;
+
+    // Optional as "no completions" (null) is a valid answer worth caching too
+    private final Map<Object, Optional<Object>> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(MAX_CACHED, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Optional<Object>> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            });
+
+    public CompletionService(Completer completer, Inspector inspector, CompletenessChecker completenessChecker) {
+        this.completer = completer;
+        this.inspector = inspector;
+        this.completenessChecker = completenessChecker;
+    }
+
+    /**
+     * @param generation changes whenever completions might change, e.g. on classpath changes
+     * @return the completions, or null if there are none
+     */
+    public ReplacementOptions complete(String code, int cursor, long generation) throws Exception {
+        Key key = new Key(code.substring(0, Math.min(cursor, code.length())), cursor, generation);
+        if (cache.containsKey(key)) {
+            KernelMetrics.get().completionCacheHits.increment();
+        } else {
+            KernelMetrics.get().completionCacheMisses.increment();
+        }
+        return (ReplacementOptions) answer(key, () -> completer.complete(code, cursor));
+    }
+
+    /**
+     * @return the inspection, or null if there is none
+     */
+    public DisplayData inspect(String code, int cursor, boolean extraDetail, long generation) throws Exception {
+        return (DisplayData) answer(new InspectKey(code, cursor, extraDetail, generation),
+                () -> inspector.inspect(code, cursor, extraDetail));
+    }
+
+    /**
+     * @return what {@link CompletenessChecker} says
+     */
+    public String isComplete(String code, long generation) throws Exception {
+        return (String) answer(new IsCompleteKey(code, generation), () -> completenessChecker.isComplete(code));
+    }
+
+    private Object answer(Object key, Callable<?> compute) throws Exception {
+        Optional<Object> cached = cache.get(key);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        Object result = compute.call();
+        cache.put(key, Optional.ofNullable(result));
+        return result;
+    }
+
+    /**
+     * Forgets cached answers, e.g. after an evaluation added new declarations.
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+}
@@ -1,21 +1,72 @@
 package dev.jbang.jupyter;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.dflib.jjava.jupyter.kernel.display.DisplayData;
 import org.dflib.jjava.jupyter.kernel.display.Renderer;
 import org.dflib.jjava.jupyter.kernel.display.mime.MIMEType;
 
+/**
+ * Renderer delegating to jjava's renderer, allowing strings to be rendered as any concrete type.
+ *
+ * Parsed MIME types and the concrete types of each requested type list are cached, as the same
+ * few lists are requested over and over when a notebook displays in a loop. Optionally rendered
+ * values that are immutable (strings, boxed primitives, enums) are memoized too; a copy of the
+ * memoized {@link DisplayData} is returned as callers may modify it, e.g. to set a display id.
+ */
 public class DelegateRenderer extends Renderer {
 
+    /** bound for the MIME type caches, only reached if types are generated */
+    static final int MAX_CACHED_TYPES = 1024;
+
+    /** longer strings are not memoized */
+    static final int MAX_MEMOIZED_LENGTH = 64 * 1024;
+
+    private static final MIMEType[] NO_TYPES = new MIMEType[0];
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = Set.of(
+            Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class);
+
     private final Renderer renderer;
 
+    private final Map<String, MIMEType> parsedTypes = new ConcurrentHashMap<>();
+    private final Map<List<String>, MIMEType[]> concreteTypes = new ConcurrentHashMap<>();
+
+    private final Map<RenderKey, DisplayData> memoized;
+
+    record RenderKey(Object value, List<String> types) {
+    }
+
     public DelegateRenderer(Renderer renderer) {
+        this(renderer, 0);
+    }
+
+    /**
+     * @param memoizedRenders how many renderings of immutable values to keep, 0 to not memoize
+     */
+    public DelegateRenderer(Renderer renderer, int memoizedRenders) {
         this.renderer = renderer;
+        this.memoized = memoizedRenders <= 0 ? null : Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<RenderKey, DisplayData> eldest) {
+                        return size() > memoizedRenders;
+                    }
+                });
     }
 
     @Override
     public <T> RenderRegistration<T> createRegistration(Class<T> type) {
+        invalidate();
         return renderer.createRegistration(type);
     }
 
@@ -25,6 +76,7 @@ public class DelegateRenderer extends Renderer {
             java.util.Set<org.dflib.jjava.jupyter.kernel.display.mime.MIMEType> preferred,
             java.util.Set<Class<? extends T>> types,
             org.dflib.jjava.jupyter.kernel.display.RenderFunction<T> function) {
+        invalidate();
         renderer.register(supported, preferred, types, function);
     }
 
@@ -35,30 +87,109 @@ public class DelegateRenderer extends Renderer {
 
     @Override
     public DisplayData render(Object value) {
-        return renderer.render(value);
+        RenderKey key = memoizable(value) ? new RenderKey(value, List.of()) : null;
+        if (key != null) {
+            DisplayData data = memoized.get(key);
+            if (data != null) {
+                return copy(data);
+            }
+        }
+        return memoize(key, renderer.render(value));
     }
 
     @Override
     public DisplayData renderAs(Object value, String... types) {
-        return fixit(value,renderer.renderAs(value, types), types);
+        RenderKey key = memoizable(value) ? new RenderKey(value, Arrays.asList(types)) : null;
+        if (key != null) {
+            DisplayData data = memoized.get(key);
+            if (data != null) {
+                return copy(data);
+            }
+        }
+        return memoize(key, fixit(value, renderer.renderAs(value, types), types));
     }
 
     @Override
     public DisplayData renderAs(Object value, Map<String, Object> arg1, String... types) {
-        return fixit(value,super.renderAs(value, arg1, types), types);
+        return fixit(value, renderer.renderAs(value, arg1, types), types);
     }
 
     DisplayData fixit(Object value, DisplayData data, String[] types) {
-         // allow string to be returned as any specific type
-         if(value instanceof String) {
-            for (String type : types) {
-                MIMEType wanted = MIMEType.parse(type);
-                if ((!wanted.isWildcard() && !wanted.subtypeIsWildcard()) && !data.hasDataForType(wanted)) {
-                    data.putData(wanted,String.valueOf(value));
+        // allow string to be returned as any specific type
+        if (value instanceof String) {
+            for (MIMEType wanted : concreteTypes(types)) {
+                if (!data.hasDataForType(wanted)) {
+                    data.putData(wanted, String.valueOf(value));
                 }
             }
         }
         return data;
     }
 
+    /**
+     * @return the requested types that are neither wildcards nor have a wildcard subtype
+     */
+    MIMEType[] concreteTypes(String[] types) {
+        MIMEType[] concrete = concreteTypes.get(Arrays.asList(types));
+        if (concrete == null) {
+            concrete = Arrays.stream(types)
+                    .map(this::parse)
+                    .filter(type -> !type.isWildcard() && !type.subtypeIsWildcard())
+                    .toArray(MIMEType[]::new);
+            if (concrete.length == 0) {
+                concrete = NO_TYPES;
+            }
+            if (concreteTypes.size() >= MAX_CACHED_TYPES) {
+                concreteTypes.clear();
+            }
+            concreteTypes.put(List.of(types), concrete);
+        }
+        return concrete;
+    }
+
+    MIMEType parse(String type) {
+        MIMEType parsed = parsedTypes.get(type);
+        if (parsed == null) {
+            parsed = MIMEType.parse(type);
+            if (parsedTypes.size() >= MAX_CACHED_TYPES) {
+                parsedTypes.clear();
+            }
+            parsedTypes.put(type, parsed);
+        }
+        return parsed;
+    }
+
+    private boolean memoizable(Object value) {
+        if (memoized == null || value == null) {
+            return false;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() <= MAX_MEMOIZED_LENGTH;
+        }
+        return value instanceof Enum || IMMUTABLE_TYPES.contains(value.getClass());
+    }
+
+    private DisplayData memoize(RenderKey key, DisplayData data) {
+        if (key == null || data == null) {
+            return data;
+        }
+        memoized.put(new RenderKey(key.value(), List.copyOf(key.types())), copy(data));
+        return data;
+    }
+
+    private static DisplayData copy(DisplayData data) {
+        DisplayData copy = new DisplayData();
+        data.getData().forEach(copy::putData);
+        data.getMetadata().forEach(copy::putMetaData);
+        return copy;
+    }
+
+    /**
+     * Registering a renderer can change how values render.
+     */
+    private void invalidate() {
+        if (memoized != null) {
+            memoized.clear();
+        }
+    }
 }
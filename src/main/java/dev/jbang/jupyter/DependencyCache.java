@@ -0,0 +1,230 @@
+package dev.jbang.jupyter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Content addressed on-disk cache of jbang dependency resolutions.
+ *
+ * Entries are keyed on the sha-256 of the normalized directive lines (//DEPS, //REPOS, //JAVA)
+ * so re-running a cell, or the same cell after a kernel restart, skips the jbang subprocess.
+ * Each entry records size, mtime and sha-256 of the resolved jars; an entry whose jars changed
+ * or disappeared is treated as a miss.
+ *
+ * The cache lives in $JBANG_CACHE_DIR/jupyter/deps (default ~/.jbang/cache/jupyter/deps)
+ * and keeps at most {@link #MAX_ENTRIES} entries, evicting the least recently used.
+ */
+public class DependencyCache {
+
+    static final Logger logger = Logger.getLogger(DependencyCache.class.getName());
+
+    static final int MAX_ENTRIES = 256;
+    static final Duration MAX_AGE = Duration.ofDays(30);
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path dir;
+
+    public DependencyCache(Path dir) {
+        this.dir = dir;
+    }
+
+    public static DependencyCache createDefault() {
+        String cacheDir = System.getenv("JBANG_CACHE_DIR");
+        Path base = cacheDir != null ? Path.of(cacheDir)
+                : Path.of(System.getProperty("user.home")).resolve(".jbang/cache");
+        return new DependencyCache(base.resolve("jupyter/deps"));
+    }
+
+    /**
+     * Computes the cache key for a set of directive lines.
+     * Whitespace is normalized but order is kept as it determines classpath order.
+     */
+    public static String key(List<String> directives) {
+        String normalized = directives.stream()
+                .map(line -> line.trim().replaceAll("\\s+", " "))
+                .collect(Collectors.joining("\n"));
+        return sha256(normalized.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the cached resolution or null if missing or no longer valid
+     */
+    public JBangInfo get(String key) {
+        Path file = entryFile(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Entry entry;
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                entry = gson.fromJson(reader, Entry.class);
+            }
+            if (entry == null || entry.resolvedDependencies == null
+                    || !verify(entry.jars, entry.resolvedDependencies)) {
+                logger.fine("Dropping stale dependency cache entry " + key);
+                Files.deleteIfExists(file);
+                return null;
+            }
+            // mtime doubles as last access time for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            logger.fine("Dependency cache hit " + key);
+            // entries written without dependencies only lack the summary's coordinates
+            List<String> dependencies = entry.dependencies != null ? entry.dependencies : List.of();
+            return new JBangInfo(new ArrayList<>(entry.resolvedDependencies), new ArrayList<>(dependencies));
+        } catch (IOException | JsonParseException e) {
+            logger.log(Level.FINE, "Could not read dependency cache entry " + key, e);
+            return null;
+        }
+    }
+
+    public void put(String key, List<String> directives, JBangInfo info) {
+        try {
+            Files.createDirectories(dir);
+            Entry entry = new Entry();
+            entry.directives = directives;
+            entry.dependencies = info.getDependencies();
+            entry.resolvedDependencies = info.getResolvedDependencies();
+            entry.jars = jars(info.getResolvedDependencies());
+            if (entry.jars == null) {
+                // directories or missing files can't be verified later, so don't cache
+                return;
+            }
+
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(entry, writer);
+            }
+            Files.move(tmp, entryFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not write dependency cache entry " + key, e);
+        }
+    }
+
+    /**
+     * Removes entries older than {@link #MAX_AGE} and the least recently used ones above {@link #MAX_ENTRIES}.
+     */
+    void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(dir)) {
+            entries = files.filter(p -> p.getFileName().toString().endsWith(".json"))
+                    .sorted(Comparator.comparing(DependencyCache::lastModified).reversed())
+                    .collect(Collectors.toList());
+        }
+        long cutoff = System.currentTimeMillis() - MAX_AGE.toMillis();
+        for (int i = 0; i < entries.size(); i++) {
+            Path entry = entries.get(i);
+            if (i >= MAX_ENTRIES || lastModified(entry) < cutoff) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    /**
+     * Records size, mtime and sha-256 of the resolved jars.
+     *
+     * @return the jars, or null if one of them is not a regular file
+     */
+    static List<Jar> jars(List<String> resolvedDependencies) throws IOException {
+        List<Jar> jars = new ArrayList<>();
+        for (String path : resolvedDependencies) {
+            Path jar = Path.of(path);
+            if (!Files.isRegularFile(jar)) {
+                return null;
+            }
+            jars.add(new Jar(path, Files.size(jar), Files.getLastModifiedTime(jar).toMillis(), sha256(jar)));
+        }
+        return jars;
+    }
+
+    /**
+     * @return whether the jars are still as recorded by {@link #jars(List)}
+     */
+    static boolean verify(List<Jar> jars, List<String> resolvedDependencies) throws IOException {
+        if (jars == null || jars.size() != resolvedDependencies.size()) {
+            return false;
+        }
+        for (Jar jar : jars) {
+            Path path = Path.of(jar.path);
+            if (!Files.isRegularFile(path) || Files.size(path) != jar.size) {
+                return false;
+            }
+            // only pay for hashing when the cheap check is inconclusive
+            if (Files.getLastModifiedTime(path).toMillis() != jar.mtime && !sha256(path).equals(jar.sha256)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path entryFile(String key) {
+        return dir.resolve(key + ".json");
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class Entry {
+        List<String> directives;
+        List<String> dependencies;
+        List<String> resolvedDependencies;
+        List<Jar> jars;
+    }
+
+    record Jar(String path, long size, long mtime, String sha256) {
+    }
+}
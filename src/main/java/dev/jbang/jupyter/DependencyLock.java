@@ -0,0 +1,354 @@
+package dev.jbang.jupyter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dev.jbang.jupyter.DependencyCache.Jar;
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Lock file of the dependencies resolved by a notebook, written next to it with %deps lock.
+ *
+ * It lists the resolutions of the session in order: their directive lines (//DEPS, //REPOS,
+ * //JAVA), the resolved coordinates and path, size, mtime and sha-256 of each jar. A cell
+ * whose resolution is locked gets its jars from the lock file without running jbang, after
+ * checking size and mtime of the jars and, only when the mtime differs, their sha-256.
+ * Jars that are missing or changed are resolved again at the coordinates they were locked
+ * at, taken from their path in the Maven repository, see {@link Resolution#pinnedDirectives()}.
+ *
+ * The file is {@code <notebook>.jbang-deps.lock} when the frontend tells the notebook in
+ * {@value #SESSION_ENV}, otherwise {@value #DEFAULT_FILE} in the working directory.
+ */
+public class DependencyLock {
+
+    static final Logger logger = Logger.getLogger(DependencyLock.class.getName());
+
+    static final String SESSION_ENV = "JPY_SESSION_NAME";
+    static final String DEFAULT_FILE = "jbang-deps.lock";
+    static final int VERSION = 1;
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path file;
+
+    // keyed on the dependency cache key of the directives, read on first use
+    private Map<String, Resolution> locked;
+
+    public DependencyLock(Path file) {
+        this.file = file;
+    }
+
+    public static DependencyLock createDefault() {
+        String session = System.getenv(SESSION_ENV);
+        Path cwd = Path.of("").toAbsolutePath();
+        if (session == null || !session.endsWith(".ipynb")) {
+            return new DependencyLock(cwd.resolve(DEFAULT_FILE));
+        }
+        // relative to the server root, while the kernel runs in the folder of the notebook
+        Path notebook = Path.of(session);
+        String name = notebook.getFileName().toString();
+        name = name.substring(0, name.length() - ".ipynb".length()) + "." + DEFAULT_FILE;
+        return new DependencyLock(notebook.isAbsolute() ? notebook.resolveSibling(name) : cwd.resolve(name));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the locked resolution of the directives or null if they are not locked or
+     *         their jars changed
+     */
+    public synchronized JBangInfo get(String key) {
+        Resolution resolution = read().get(key);
+        if (resolution == null) {
+            return null;
+        }
+        try {
+            if (!DependencyCache.verify(resolution.jars, resolution.resolvedDependencies())) {
+                logger.fine("Jars of locked resolution " + key + " changed");
+                return null;
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not verify locked resolution " + key, e);
+            return null;
+        }
+        return resolution.toInfo();
+    }
+
+    /**
+     * @return the resolutions in the lock file, in the order they were locked
+     */
+    public synchronized List<Resolution> getResolutions() {
+        return new ArrayList<>(read().values());
+    }
+
+    /**
+     * Replaces the lock file with the given resolutions.
+     */
+    public synchronized void write(List<Resolution> resolutions) throws IOException {
+        LockFile lockFile = new LockFile();
+        lockFile.version = VERSION;
+        lockFile.resolutions = resolutions;
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(lockFile, writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        locked = new LinkedHashMap<>();
+        for (Resolution resolution : resolutions) {
+            locked.put(resolution.key, resolution);
+        }
+    }
+
+    /**
+     * Compares a fresh resolution with the locked one by artifact, or by file name for jars
+     * outside a Maven repository.
+     *
+     * @return the artifacts that were added, removed or changed version or content
+     */
+    static List<String> differences(Resolution lockedResolution, Resolution resolution) {
+        Map<String, Jar> lockedJars = byArtifact(lockedResolution.jars);
+        Map<String, Jar> jars = byArtifact(resolution.jars);
+        List<String> differences = new ArrayList<>();
+        lockedJars.forEach((key, jar) -> {
+            if (!jars.containsKey(key)) {
+                differences.add("removed " + describe(jar));
+            }
+        });
+        jars.forEach((key, jar) -> {
+            Jar lockedJar = lockedJars.get(key);
+            if (lockedJar == null) {
+                differences.add("added " + describe(jar));
+                return;
+            }
+            Artifact lockedArtifact = Artifact.of(lockedJar.path());
+            Artifact artifact = Artifact.of(jar.path());
+            if (artifact != null && !artifact.version().equals(lockedArtifact.version())) {
+                differences.add("changed " + key + " from " + lockedArtifact.version() + " to " + artifact.version());
+            } else if (!jar.sha256().equals(lockedJar.sha256())) {
+                differences.add("changed content of " + describe(jar));
+            }
+        });
+        return differences;
+    }
+
+    private static Map<String, Jar> byArtifact(List<Jar> jars) {
+        Map<String, Jar> byArtifact = new LinkedHashMap<>();
+        for (Jar jar : jars) {
+            Artifact artifact = Artifact.of(jar.path());
+            byArtifact.put(artifact != null ? artifact.key() : Path.of(jar.path()).getFileName().toString(), jar);
+        }
+        return byArtifact;
+    }
+
+    private static String describe(Jar jar) {
+        Artifact artifact = Artifact.of(jar.path());
+        return artifact != null ? artifact.coordinate() : jar.path();
+    }
+
+    /**
+     * A jar in a Maven repository, which stores it as
+     * {@code <repository>/<group path>/<artifactId>/<version>/<artifactId>-<version>[-<classifier>].jar}.
+     */
+    record Artifact(String groupId, String artifactId, String version, String classifier) {
+
+        // a snapshot may be stored with the timestamp it was deployed at instead of SNAPSHOT
+        private static final Pattern TIMESTAMPED = Pattern.compile("(?<timestamp>\\d{8}\\.\\d{6}-\\d+)(-(?<classifier>.+))?");
+
+        /**
+         * @return the artifact, or null if the jar is not in a folder named repository
+         */
+        static Artifact of(String jar) {
+            Path path = Path.of(jar);
+            int count = path.getNameCount();
+            String file = path.getFileName().toString();
+            if (count < 5 || !file.endsWith(".jar")) {
+                return null;
+            }
+            String version = path.getName(count - 2).toString();
+            String artifactId = path.getName(count - 3).toString();
+            int repository = -1;
+            for (int i = count - 5; i >= 0; i--) {
+                if (path.getName(i).toString().equals("repository")) {
+                    repository = i;
+                    break;
+                }
+            }
+            String prefix = artifactId + "-";
+            if (repository < 0 || !file.startsWith(prefix)) {
+                return null;
+            }
+            String rest = file.substring(prefix.length(), file.length() - ".jar".length());
+            String classifier;
+            if (rest.equals(version)) {
+                classifier = null;
+            } else if (rest.startsWith(version + "-")) {
+                classifier = rest.substring(version.length() + 1);
+            } else if (version.endsWith("-SNAPSHOT")) {
+                String base = version.substring(0, version.length() - "SNAPSHOT".length());
+                Matcher timestamped = TIMESTAMPED.matcher(rest.startsWith(base) ? rest.substring(base.length()) : "");
+                if (!timestamped.matches()) {
+                    return null;
+                }
+                classifier = timestamped.group("classifier");
+                // the deployed snapshot, not whichever is the latest
+                version = base + timestamped.group("timestamp");
+            } else {
+                return null;
+            }
+            List<String> group = new ArrayList<>();
+            for (int i = repository + 1; i < count - 3; i++) {
+                group.add(path.getName(i).toString());
+            }
+            return new Artifact(String.join(".", group), artifactId, version, classifier);
+        }
+
+        /**
+         * @return whether the version names one build, unlike a snapshot stored without timestamp
+         */
+        boolean pinned() {
+            return !version.endsWith("-SNAPSHOT");
+        }
+
+        /**
+         * @return groupId:artifactId, with the classifier if there is one
+         */
+        String key() {
+            return groupId + ":" + artifactId + (classifier != null ? ":" + classifier : "");
+        }
+
+        /**
+         * @return the coordinate as written in //DEPS
+         */
+        String coordinate() {
+            return groupId + ":" + artifactId + ":" + version + (classifier != null ? ":" + classifier : "");
+        }
+    }
+
+    private Map<String, Resolution> read() {
+        if (locked != null) {
+            return locked;
+        }
+        locked = new LinkedHashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return locked;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            LockFile lockFile = gson.fromJson(reader, LockFile.class);
+            if (lockFile == null || lockFile.resolutions == null || lockFile.version != VERSION) {
+                logger.warning("Ignoring lock file " + file + " of an unknown format");
+                return locked;
+            }
+            for (Resolution resolution : lockFile.resolutions) {
+                if (resolution.key != null && resolution.jars != null) {
+                    locked.put(resolution.key, resolution);
+                }
+            }
+            logger.fine("Read " + locked.size() + " locked resolutions from " + file);
+        } catch (IOException | JsonParseException e) {
+            logger.log(Level.WARNING, "Could not read lock file " + file, e);
+        }
+        return locked;
+    }
+
+    static class LockFile {
+        int version;
+        List<Resolution> resolutions;
+    }
+
+    /**
+     * A resolution of the session: the directives sent to jbang and what they resolved to.
+     */
+    public static class Resolution {
+        String key;
+        List<String> directives;
+        List<String> dependencies;
+        List<Jar> jars;
+
+        /**
+         * @return the resolution, or null if it has jars that can't be locked, e.g. folders
+         */
+        static Resolution of(String key, List<String> directives, JBangInfo info) throws IOException {
+            List<Jar> jars = DependencyCache.jars(info.getResolvedDependencies());
+            if (jars == null) {
+                return null;
+            }
+            Resolution resolution = new Resolution();
+            resolution.key = key;
+            resolution.directives = directives;
+            resolution.dependencies = info.getDependencies();
+            resolution.jars = jars;
+            return resolution;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<String> getDirectives() {
+            return directives;
+        }
+
+        /**
+         * The directives with //DEPS replaced by the coordinates of all locked jars, so
+         * resolving them again doesn't pick newer versions for ranges, LATEST or snapshots.
+         * Timestamped snapshots are pinned to their timestamp.
+         *
+         * @return the pinned directives, or null if a jar is not in a Maven repository or is
+         *         a snapshot without timestamp, which could resolve to a newer build
+         */
+        List<String> pinnedDirectives() {
+            List<String> coordinates = new ArrayList<>();
+            for (Jar jar : jars) {
+                Artifact artifact = Artifact.of(jar.path());
+                if (artifact == null || !artifact.pinned()) {
+                    return null;
+                }
+                coordinates.add(artifact.coordinate());
+            }
+            List<String> pinned = new ArrayList<>();
+            for (String line : directives) {
+                if (!line.startsWith("//DEPS")) {
+                    pinned.add(line);
+                }
+            }
+            pinned.add("//DEPS " + String.join(" ", coordinates));
+            return pinned;
+        }
+
+        List<String> resolvedDependencies() {
+            List<String> paths = new ArrayList<>();
+            for (Jar jar : jars) {
+                paths.add(jar.path());
+            }
+            return paths;
+        }
+
+        JBangInfo toInfo() {
+            return new JBangInfo(resolvedDependencies(),
+                    dependencies != null ? new ArrayList<>(dependencies) : new ArrayList<>());
+        }
+    }
+}
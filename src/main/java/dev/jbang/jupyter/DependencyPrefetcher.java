@@ -0,0 +1,188 @@
+package dev.jbang.jupyter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Resolves dependencies speculatively in the background while a cell is still being edited,
+ * so the jars are ready by the time the cell is executed.
+ *
+ * Prefetches are deduplicated by their resolution key and handed over
+ * to the evaluation with {@link #take(String)}. Completion requests don't tell which cell
+ * they are for, so the latest prefetch is taken to be for the cell being edited: it
+ * supersedes the ones still queued or running, which are cancelled and whose jbang process
+ * is killed. Only finished prefetches are kept for the cells they were started for.
+ *
+ * What jbang prints while prefetching is buffered, so a cell that joins a running prefetch
+ * shows its progress from the start, see {@link Prefetch#showProgress(Function)}.
+ */
+public class DependencyPrefetcher {
+
+    static final Logger logger = Logger.getLogger(DependencyPrefetcher.class.getName());
+
+    /**
+     * Upper bound of remembered prefetches; edits produce many keys that are never executed.
+     */
+    static final int MAX_PREFETCHES = 32;
+
+    static final String THREAD_NAME = "jbang-prefetch";
+
+    /**
+     * A resolution started ahead of its cell, and the progress of the jbang process it runs.
+     */
+    public static final class Prefetch {
+        private final CompletableFuture<JBangInfo> future = new CompletableFuture<>();
+        private final Deque<String> lines = new ArrayDeque<>();
+        private Function<String, JBangProcess.Progress> listener;
+        private JBangProcess.Progress target;
+        private String description;
+        private boolean running;
+
+        public CompletableFuture<JBangInfo> future() {
+            return future;
+        }
+
+        /**
+         * Shows the progress of the jbang process in the joining cell, starting with the
+         * lines printed before the cell joined. Nothing is shown when it already finished.
+         */
+        public synchronized void showProgress(Function<String, JBangProcess.Progress> listener) {
+            this.listener = listener;
+            if (running) {
+                target = listener.apply(description);
+                if (target != null) {
+                    lines.forEach(target::line);
+                }
+            }
+        }
+
+        synchronized JBangProcess.Progress start(String description) {
+            this.description = description;
+            lines.clear();
+            running = true;
+            target = listener != null ? listener.apply(description) : null;
+            return new JBangProcess.Progress() {
+                @Override
+                public void line(String line) {
+                    synchronized (Prefetch.this) {
+                        if (lines.size() == JBangProgressDisplay.LINES) {
+                            lines.removeFirst();
+                        }
+                        lines.addLast(line);
+                        if (target != null) {
+                            target.line(line);
+                        }
+                    }
+                }
+
+                @Override
+                public void done(boolean success) {
+                    synchronized (Prefetch.this) {
+                        running = false;
+                        if (target != null) {
+                            target.done(success);
+                            target = null;
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    // in the order they were started, guarded by this
+    private final Map<String, Prefetch> prefetches = new LinkedHashMap<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The prefetch running on the prefetch thread, guarded by this. Also kept after a cell
+     * took it, so its progress still reaches that cell.
+     */
+    private Prefetch running;
+
+    /**
+     * Starts resolving unless a prefetch for the same key is already known,
+     * cancelling the prefetches it supersedes.
+     */
+    public synchronized void prefetch(String key, Callable<JBangInfo> resolution) {
+        if (prefetches.containsKey(key)) {
+            return;
+        }
+        Iterator<Map.Entry<String, Prefetch>> entries = prefetches.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Prefetch> entry = entries.next();
+            if (!entry.getValue().future().isDone()) {
+                cancel(entry.getKey(), entry.getValue());
+                entries.remove();
+            }
+        }
+        entries = prefetches.entrySet().iterator();
+        while (prefetches.size() >= MAX_PREFETCHES && entries.hasNext()) {
+            entries.next();
+            entries.remove();
+        }
+
+        Prefetch prefetch = new Prefetch();
+        prefetches.put(key, prefetch);
+        executor.execute(() -> {
+            synchronized (this) {
+                if (prefetch.future().isDone()) {
+                    return;
+                }
+                running = prefetch;
+            }
+            logger.fine("Prefetching dependencies " + key);
+            try {
+                prefetch.future().complete(resolution.call());
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Prefetching dependencies " + key + " failed", e);
+                prefetch.future().completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    running = null;
+                }
+            }
+        });
+    }
+
+    private void cancel(String key, Prefetch prefetch) {
+        logger.fine("Cancelling superseded prefetch " + key);
+        // a queued prefetch then doesn't start at all
+        prefetch.future().cancel(false);
+        if (prefetch == running) {
+            JBangProcess.cancel(THREAD_NAME);
+        }
+    }
+
+    /**
+     * @return the prefetch for the key, in flight or done, or null if none was started
+     */
+    public synchronized Prefetch take(String key) {
+        return prefetches.remove(key);
+    }
+
+    /**
+     * Called on the prefetch thread when it starts a jbang process.
+     *
+     * @return where to report its progress
+     */
+    synchronized JBangProcess.Progress startProgress(String description) {
+        return running != null ? running.start(description) : null;
+    }
+}
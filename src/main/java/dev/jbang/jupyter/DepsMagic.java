@@ -0,0 +1,53 @@
+package dev.jbang.jupyter;
+
+import java.util.List;
+
+import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
+
+/**
+ * Locks the dependencies resolved by the notebook so later runs don't need jbang.
+ *
+ * Usage:
+ * %deps - Show the lock file and what it locks
+ * %deps lock - Write the resolutions of the session to the lock file
+ * %deps sync - Add all locked jars to the classpath, resolving changed ones again at their locked versions
+ *
+ * Cells whose //DEPS are locked take their jars from the lock file also without %deps sync,
+ * see {@link DependencyLock}.
+ */
+public class DepsMagic implements LineMagic<Void, JBangKernel> {
+
+    @Override
+    public Void eval(JBangKernel kernel, List<String> args) throws Exception {
+        if (args.isEmpty()) {
+            System.out.println(describe(kernel.getDependencyLock()));
+            return null;
+        }
+        if (args.size() > 1) {
+            throw new IllegalArgumentException("Usage: %deps [lock|sync]");
+        }
+        switch (args.get(0)) {
+            case "lock":
+                System.out.println(kernel.lockDependencies());
+                return null;
+            case "sync":
+                System.out.println(kernel.syncDependencies());
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown %deps command " + args.get(0) + ", use lock or sync");
+        }
+    }
+
+    static String describe(DependencyLock lock) {
+        List<DependencyLock.Resolution> resolutions = lock.getResolutions();
+        if (resolutions.isEmpty()) {
+            return "Nothing locked in " + lock.getFile();
+        }
+        StringBuilder description = new StringBuilder("Lock file: " + lock.getFile());
+        for (DependencyLock.Resolution resolution : resolutions) {
+            description.append("\n").append(String.join(" ", resolution.getDirectives()))
+                    .append(lock.get(resolution.getKey()) != null ? "" : " (jars changed, run %deps sync)");
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package dev.jbang.jupyter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The jbang directives of a cell, e.g. //DEPS, //REPOS or //JAVA.
+ *
+ * {@link #scan(String)} finds them in a single pass and only recognizes directives
+ * that start a line of code, not ones inside block comments or text blocks. The same goes
+ * for {@code %jvm} lines, which have to be applied before anything else of the cell runs.
+ * Cells without any "//" or "%jvm" are not scanned at all.
+ */
+public class Directives {
+
+    public static final Directives EMPTY = new Directives();
+
+    private static final String JVM_MAGIC = "%jvm";
+
+    private static final Set<String> NAMES = Set.of(
+            "DEPS", "REPOS", "JAVA", "SOURCES", "COMPILE_OPTIONS", "RUNTIME_OPTIONS", "JAVA_OPTIONS");
+
+    private final List<String> deps = new ArrayList<>();
+    private final List<String> repos = new ArrayList<>();
+    private final List<String> java = new ArrayList<>();
+    private final List<String> sources = new ArrayList<>();
+    private final List<String> compileOptions = new ArrayList<>();
+    private final List<String> runtimeOptions = new ArrayList<>();
+    private final List<List<String>> jvmMagics = new ArrayList<>();
+
+    /**
+     * groupId:artifactId[:classifier...]:version[@type] with a version that doesn't end
+     * like one still being typed, e.g. "1." or "[1,".
+     */
+    private static final Pattern COMPLETE_COORDINATE = Pattern.compile(
+            "[\\w.-]+:[\\w.-]+(:[\\w.-]*)*:([\\w.+-]*\\w|[\\[(][\\w.,+-]*[\\])])(@\\w+)?");
+
+    private Directives() {
+    }
+
+    public static Directives scan(String source) {
+        if (source == null || (source.indexOf("//") < 0 && !source.contains(JVM_MAGIC))) {
+            return EMPTY;
+        }
+
+        Directives directives = null;
+        int length = source.length();
+        boolean inBlockComment = false;
+        boolean inTextBlock = false;
+        int i = 0;
+        while (i < length) {
+            // at the start of a line
+            if (!inBlockComment && !inTextBlock && source.startsWith("//", i)) {
+                int end = lineEnd(source, i);
+                int nameEnd = i + 2;
+                while (nameEnd < end && (Character.isUpperCase(source.charAt(nameEnd)) || source.charAt(nameEnd) == '_')) {
+                    nameEnd++;
+                }
+                String name = source.substring(i + 2, nameEnd);
+                if (NAMES.contains(name) && (nameEnd == end || Character.isWhitespace(source.charAt(nameEnd)))) {
+                    if (directives == null) {
+                        directives = new Directives();
+                    }
+                    directives.add(name, source.substring(nameEnd, end).trim());
+                }
+                i = end + 1;
+                continue;
+            }
+            if (!inBlockComment && !inTextBlock) {
+                int start = i;
+                while (start < length && (source.charAt(start) == ' ' || source.charAt(start) == '\t')) {
+                    start++;
+                }
+                int end = lineEnd(source, start);
+                int nameEnd = start + JVM_MAGIC.length();
+                if (source.startsWith(JVM_MAGIC, start) && (nameEnd == end || Character.isWhitespace(source.charAt(nameEnd)))) {
+                    if (directives == null) {
+                        directives = new Directives();
+                    }
+                    directives.jvmMagics.add(split(source.substring(nameEnd, end).trim(), "\\s+"));
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            // rest of the line, tracking state that can span lines
+            while (i < length) {
+                char c = source.charAt(i++);
+                if (c == '\n') {
+                    break;
+                }
+                if (inBlockComment) {
+                    if (c == '*' && i < length && source.charAt(i) == '/') {
+                        inBlockComment = false;
+                        i++;
+                    }
+                } else if (inTextBlock) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == '"' && source.startsWith("\"\"", i)) {
+                        inTextBlock = false;
+                        i += 2;
+                    }
+                } else if (c == '/' && i < length && source.charAt(i) == '/') {
+                    i = lineEnd(source, i) + 1;
+                    break;
+                } else if (c == '/' && i < length && source.charAt(i) == '*') {
+                    inBlockComment = true;
+                    i++;
+                } else if (c == '"' && source.startsWith("\"\"", i)) {
+                    inTextBlock = true;
+                    i += 2;
+                } else if (c == '"' || c == '\'') {
+                    i = literalEnd(source, i, c);
+                }
+            }
+        }
+        return directives != null ? directives : EMPTY;
+    }
+
+    private void add(String name, String value) {
+        switch (name) {
+            case "DEPS":
+                deps.addAll(split(value, "[\\s,;]+"));
+                break;
+            case "REPOS":
+                repos.addAll(split(value, "[\\s,;]+"));
+                break;
+            case "JAVA":
+                java.addAll(split(value, "\\s+"));
+                break;
+            case "SOURCES":
+                sources.addAll(split(value, "\\s+"));
+                break;
+            case "COMPILE_OPTIONS":
+                compileOptions.addAll(split(value, "\\s+"));
+                break;
+            case "RUNTIME_OPTIONS":
+            case "JAVA_OPTIONS":
+                runtimeOptions.addAll(split(value, "\\s+"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown directive " + name);
+        }
+    }
+
+    private static List<String> split(String value, String separators) {
+        if (value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.split(separators));
+    }
+
+    private static int lineEnd(String source, int from) {
+        int end = source.indexOf('\n', from);
+        return end < 0 ? source.length() : end;
+    }
+
+    /**
+     * @return index after the closing quote, or of the line end for unterminated literals
+     */
+    private static int literalEnd(String source, int from, char quote) {
+        int length = source.length();
+        int i = from;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    public List<String> getDeps() {
+        return deps;
+    }
+
+    public List<String> getRepos() {
+        return repos;
+    }
+
+    public List<String> getJava() {
+        return java;
+    }
+
+    public List<String> getSources() {
+        return sources;
+    }
+
+    public List<String> getCompileOptions() {
+        return compileOptions;
+    }
+
+    public List<String> getRuntimeOptions() {
+        return runtimeOptions;
+    }
+
+    /**
+     * @return the arguments of each %jvm line, in order
+     */
+    public List<List<String>> getJvmMagics() {
+        return jvmMagics;
+    }
+
+    /**
+     * Whether all //DEPS are full Maven coordinates, as opposed to ones still being typed.
+     */
+    public boolean hasCompleteDeps() {
+        return !deps.isEmpty() && deps.stream().allMatch(coordinate -> COMPLETE_COORDINATE.matcher(coordinate).matches());
+    }
+
+    /**
+     * Builds the directive lines needed to resolve the given coordinates in the
+     * context of these directives. //REPOS and //JAVA are kept and BOM imports (@pom)
+     * are always included as they can manage the versions of the coordinates.
+     */
+    public List<String> getResolutionLines(List<String> coordinates) {
+        List<String> lines = new ArrayList<>();
+        if (!repos.isEmpty()) {
+            lines.add("//REPOS " + String.join(" ", repos));
+        }
+        if (!java.isEmpty()) {
+            lines.add("//JAVA " + String.join(" ", java));
+        }
+        List<String> resolve = new ArrayList<>();
+        deps.stream()
+                .filter(coordinate -> coordinate.endsWith("@pom") && !coordinates.contains(coordinate))
+                .forEach(resolve::add);
+        resolve.addAll(coordinates);
+        lines.add("//DEPS " + String.join(" ", resolve));
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return "Directives{deps=" + deps + ", repos=" + repos + ", java=" + java + ", sources=" + sources
+                + ", compileOptions=" + compileOptions + ", runtimeOptions=" + runtimeOptions + "}";
+    }
+}
@@ -0,0 +1,202 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+
+/**
+ * Records where the time of each cell goes, one JSON line per cell.
+ *
+ * A line looks like
+ * {@code {"cell":3,"start":1718000000000,"pid":4242,"status":"ok","codeChars":120,"totalNanos":..,
+ * "spans":[{"phase":"magics","startNanos":..,"nanos":..},...],"classpathSize":42,"resultBytes":230}}
+ * with span starts relative to the start of the cell.
+ *
+ * When tracing is off, {@link #begin(String)} returns {@link CellTrace#NONE} whose methods do nothing,
+ * so the instrumented code pays a field read and a few no-op calls per cell.
+ * Lines are written by an {@link AsyncLogHandler}.
+ */
+public class ExecutionTracer {
+
+    public enum Phase {
+        MAGICS, DIRECTIVES, RESOLVE, CLASSPATH, EVAL, RENDER;
+
+        final String jsonName = name().toLowerCase();
+    }
+
+    private static final long PID = ProcessHandle.current().pid();
+
+    private final AtomicLong cells = new AtomicLong();
+
+    private volatile AsyncLogHandler handler;
+
+    public synchronized void start(Path file) throws IOException {
+        stop();
+        AsyncLogHandler newHandler = new AsyncLogHandler(file, 0, 0, AsyncLogHandler.DEFAULT_CAPACITY,
+                AsyncLogHandler.OverflowPolicy.DROP);
+        newHandler.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return record.getMessage() + "\n";
+            }
+        });
+        handler = newHandler;
+    }
+
+    public synchronized void stop() {
+        if (handler != null) {
+            handler.close();
+            handler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return handler != null;
+    }
+
+    /**
+     * @return the trace file, or null when tracing is off
+     */
+    public Path getFile() {
+        AsyncLogHandler current = handler;
+        return current != null ? current.getFile() : null;
+    }
+
+    public String getStatistics() {
+        AsyncLogHandler current = handler;
+        return current != null ? current.getStatistics() : "off";
+    }
+
+    /**
+     * Starts tracing a cell.
+     */
+    public CellTrace begin(String code) {
+        if (handler == null) {
+            return CellTrace.NONE;
+        }
+        return new CellTrace(this, cells.incrementAndGet(), code != null ? code.length() : 0);
+    }
+
+    void write(JsonObject line) {
+        AsyncLogHandler current = handler;
+        if (current != null) {
+            current.publish(new LogRecord(Level.INFO, line.toString()));
+        }
+    }
+
+    /**
+     * The spans of a single cell. Only used from the thread executing the cell.
+     */
+    public static class CellTrace {
+
+        public static final CellTrace NONE = new CellTrace(null, 0, 0);
+
+        private final ExecutionTracer tracer;
+        private final long cell;
+        private final int codeChars;
+        private final long startMillis;
+        private final long startNanos;
+
+        // phase ordinal, start and duration per span
+        private long[] spans = new long[3 * 8];
+        private int spanCount;
+        private long classpathSize = -1;
+        private long resultBytes;
+
+        private CellTrace(ExecutionTracer tracer, long cell, int codeChars) {
+            this.tracer = tracer;
+            this.cell = cell;
+            this.codeChars = codeChars;
+            this.startMillis = tracer != null ? System.currentTimeMillis() : 0;
+            this.startNanos = tracer != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * @return start time to pass to {@link #end(Phase, long)}
+         */
+        public long start() {
+            return tracer != null ? System.nanoTime() : 0;
+        }
+
+        public void end(Phase phase, long start) {
+            if (tracer == null) {
+                return;
+            }
+            long end = System.nanoTime();
+            if (spanCount * 3 == spans.length) {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+            spans[spanCount * 3] = phase.ordinal();
+            spans[spanCount * 3 + 1] = start - startNanos;
+            spans[spanCount * 3 + 2] = end - start;
+            spanCount++;
+        }
+
+        public void classpathSize(int size) {
+            if (tracer != null) {
+                classpathSize = size;
+            }
+        }
+
+        /**
+         * Counts the UTF-8 bytes of the rendered result.
+         */
+        public void result(DisplayData data) {
+            if (tracer == null || data == null) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : data.getData().entrySet()) {
+                resultBytes += String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+
+        /**
+         * Writes the trace line.
+         */
+        public void finish(Throwable error) {
+            if (tracer == null) {
+                return;
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("cell", cell);
+            json.addProperty("start", startMillis);
+            json.addProperty("pid", PID);
+            json.addProperty("status", error == null ? "ok" : "error");
+            if (error != null) {
+                json.addProperty("error", error.getClass().getName());
+            }
+            json.addProperty("codeChars", codeChars);
+            json.addProperty("totalNanos", System.nanoTime() - startNanos);
+            json.add("spans", spansJson());
+            if (classpathSize >= 0) {
+                json.addProperty("classpathSize", classpathSize);
+            }
+            json.addProperty("resultBytes", resultBytes);
+            tracer.write(json);
+        }
+
+        private JsonArray spansJson() {
+            Phase[] phases = Phase.values();
+            JsonArray array = new JsonArray(spanCount);
+            for (int i = 0; i < spanCount; i++) {
+                JsonObject span = new JsonObject();
+                span.addProperty("phase", phases[(int) spans[i * 3]].jsonName);
+                span.addProperty("startNanos", spans[i * 3 + 1]);
+                span.addProperty("nanos", spans[i * 3 + 2]);
+                array.add(span);
+            }
+            return array;
+        }
+    }
+}
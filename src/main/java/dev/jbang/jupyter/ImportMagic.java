@@ -0,0 +1,51 @@
+package dev.jbang.jupyter;
+
+import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
+
+import dev.jbang.jupyter.ClassIndex.ClassMatch;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Imports classes by simple name, looking them up in the jars added to the classpath.
+ *
+ * Usage:
+ * %import ObjectMapper JsonNode - imports the classes, or lists the candidates when ambiguous
+ */
+public class ImportMagic implements LineMagic<Void, JBangKernel> {
+
+    @Override
+    public Void eval(JBangKernel kernel, List<String> args) throws Exception {
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("Usage: %import <SimpleClassName>...");
+        }
+
+        ClassIndex index = kernel.getClassIndex();
+        // jars of the latest //DEPS might still be indexing
+        index.await();
+
+        StringBuilder imports = new StringBuilder();
+        for (String simpleName : args) {
+            List<ClassMatch> matches = index.find(simpleName);
+            List<String> classNames = matches.stream().map(ClassMatch::className).distinct().collect(Collectors.toList());
+            if (classNames.isEmpty()) {
+                System.out.println("No class named " + simpleName + " found in the classpath jars");
+            } else if (classNames.size() == 1) {
+                imports.append("import ").append(classNames.get(0)).append(";\n");
+                System.out.println("import " + classNames.get(0) + ";");
+            } else {
+                System.out.println(simpleName + " is ambiguous, import one of:");
+                for (ClassMatch match : matches) {
+                    String jar = match.jar().substring(match.jar().lastIndexOf('/') + 1);
+                    System.out.println("  import " + match.className() + ";  // " + jar);
+                }
+            }
+        }
+
+        if (imports.length() > 0) {
+            kernel.evalRaw(imports.toString());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+package dev.jbang.jupyter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Resolves by loading jbang.jar once into an isolated classloader of the kernel JVM
+ * and calling its command line directly, avoiding a JVM start per request.
+ *
+ * jbang prints its results on System.out, so invocations are serialized and
+ * System.out is captured for their duration.
+ *
+ * If jbang.jar can't be found or loaded, or jbang's entry points are not
+ * what we expect, requests are handed to the fallback resolver.
+ */
+public class InProcessJBangResolver implements JBangResolver {
+
+    final static Logger logger = Logger.getLogger(InProcessJBangResolver.class.getName());
+
+    private static final String JBANG_CLI_CLASS = "dev.jbang.cli.JBang";
+
+    private final JBangResolver fallback;
+
+    private ClassLoader jbangLoader;
+    private boolean disabled;
+
+    public InProcessJBangResolver(JBangResolver fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public JBangInfo info(String scriptRef, String body, boolean inclAppJar) throws IOException {
+        Path script = null;
+        try {
+            if (body != null) {
+                // jbang would read the body from stdin, which we can't hand over in-process
+                script = Files.createTempFile("jbang-jupyter", ".jsh");
+                Files.writeString(script, body);
+                scriptRef = script.toString();
+            }
+            String output = execute("info", "tools", scriptRef);
+            if (output == null) {
+                return fallback.info(script != null ? "-" : scriptRef, body, inclAppJar);
+            }
+            logger.fine("jbang info tools output: " + output);
+            return JBangHelper.parseJBangInfo(output, inclAppJar);
+        } finally {
+            if (script != null) {
+                Files.deleteIfExists(script);
+            }
+        }
+    }
+
+    @Override
+    public void build(String scriptRef) throws IOException {
+        if (execute("build", scriptRef) == null) {
+            fallback.build(scriptRef);
+        }
+    }
+
+    /**
+     * Only the fallback's processes can be stopped, jbang running in-process can't be interrupted.
+     */
+    @Override
+    public void cancel() {
+        fallback.cancel();
+    }
+
+    /**
+     * System.out is swapped while jbang runs, which would swallow output of a concurrently running cell.
+     */
+    @Override
+    public boolean supportsConcurrentUse() {
+        return false;
+    }
+
+    /**
+     * @return captured standard output, or null when jbang could not be run in-process
+     */
+    private synchronized String execute(String... args) {
+        ClassLoader loader = loader();
+        if (loader == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream originalOut = System.out;
+        Thread thread = Thread.currentThread();
+        ClassLoader originalContextLoader = thread.getContextClassLoader();
+        int exitCode;
+        try {
+            System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+            thread.setContextClassLoader(loader);
+
+            KernelMetrics.get().jbangInProcess.increment();
+            // a fresh command line per call as picocli keeps parsed state on it
+            Object cli = loader.loadClass(JBANG_CLI_CLASS).getMethod("getCommandLine").invoke(null);
+            exitCode = (Integer) cli.getClass().getMethod("execute", String[].class).invoke(cli, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("jbang " + String.join(" ", args) + " failed", e.getCause());
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            logger.log(Level.WARNING, "Could not run jbang in-process, falling back to jbang executable", e);
+            disabled = true;
+            return null;
+        } finally {
+            System.setOut(originalOut);
+            thread.setContextClassLoader(originalContextLoader);
+        }
+
+        String output = buffer.toString(StandardCharsets.UTF_8);
+        if (exitCode != 0) {
+            throw new RuntimeException("jbang " + args[0] + " failed with exit code " + exitCode + ":\n" + output);
+        }
+        return output;
+    }
+
+    private ClassLoader loader() {
+        if (jbangLoader == null && !disabled) {
+            try {
+                Path jar = findJBangJar();
+                if (jar == null) {
+                    logger.warning("jbang.jar not found, falling back to jbang executable");
+                    disabled = true;
+                } else {
+                    logger.fine("Loading jbang in-process from " + jar);
+                    // parent is the platform loader so kernel classes (gson, jjava...) don't leak into jbang
+                    jbangLoader = new URLClassLoader("jbang", new URL[] { jar.toUri().toURL() },
+                            ClassLoader.getPlatformClassLoader());
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not load jbang.jar, falling back to jbang executable", e);
+                disabled = true;
+            }
+        }
+        return jbangLoader;
+    }
+
+    /**
+     * jbang.jar is installed next to the jbang launch script.
+     */
+    static Path findJBangJar() throws IOException {
+        List<Path> candidates = new ArrayList<>();
+        String jbangHome = System.getenv("JBANG_HOME");
+        if (jbangHome != null) {
+            candidates.add(Path.of(jbangHome).resolve("bin/jbang.jar"));
+        }
+        String executable = JBangHelper.findJBangExecutable();
+        if (executable != null) {
+            candidates.add(Path.of(executable).toRealPath().resolveSibling("jbang.jar"));
+        }
+        candidates.add(Path.of(System.getProperty("user.home")).resolve(".jbang/bin/jbang.jar"));
+
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Installs jbang from a bundled distribution zip when it isn't installed, without network access.
+ *
+ * The zip is the jbang release zip ({@code jbang-<version>/bin/jbang}, {@code bin/jbang.jar}...),
+ * taken from {@value #ZIP_ENV} or from the {@value #ZIP_RESOURCE} resource of the kernel jar,
+ * and extracted once to {@code ~/.jbang/jupyter/bootstrap}. The build bundles the release
+ * set by the {@code jbang.version} property of the pom.
+ */
+public class JBangBootstrap {
+
+    static final Logger logger = Logger.getLogger(JBangBootstrap.class.getName());
+
+    static final String ZIP_ENV = "JBANG_KERNEL_JBANG_ZIP";
+    static final String ZIP_RESOURCE = "jbang/jbang.zip";
+
+    private JBangBootstrap() {
+    }
+
+    static Path bootstrapDir() {
+        return Path.of(System.getProperty("user.home")).resolve(".jbang/jupyter/bootstrap");
+    }
+
+    /**
+     * @return the executable of an earlier bootstrap, or null
+     */
+    static Path findBootstrapped(String executableName) throws IOException {
+        Path dir = bootstrapDir();
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.find(dir, 3,
+                (path, attributes) -> attributes.isRegularFile() && path.getFileName().toString().equals(executableName)
+                        && path.getParent().getFileName().toString().equals("bin"))) {
+            return files.findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * Extracts the bundled distribution unless that was done before.
+     *
+     * @return the jbang executable, or null when there is no bundled distribution
+     */
+    static synchronized Path bootstrap(String executableName) throws IOException {
+        Path existing = findBootstrapped(executableName);
+        if (existing != null) {
+            return existing;
+        }
+
+        String zipFile = System.getenv(ZIP_ENV);
+        InputStream zip = zipFile != null && !zipFile.isBlank()
+                ? Files.newInputStream(Path.of(zipFile))
+                : JBangBootstrap.class.getClassLoader().getResourceAsStream(ZIP_RESOURCE);
+        if (zip == null) {
+            return null;
+        }
+
+        Path dir = bootstrapDir();
+        Files.createDirectories(dir.getParent());
+        Path tmp = Files.createTempDirectory(dir.getParent(), "bootstrap");
+        try (ZipInputStream in = new ZipInputStream(zip)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path target = tmp.resolve(entry.getName()).normalize();
+                if (!target.startsWith(tmp)) {
+                    throw new IOException("Bundled jbang zip has an entry outside of its folder: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                    if (target.getParent().getFileName().toString().equals("bin")) {
+                        target.toFile().setExecutable(true);
+                    }
+                }
+            }
+            // another kernel may have bootstrapped in the meantime, then its copy is used
+            try {
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileSystemException e) {
+                // moving onto a non-empty folder fails with ENOTEMPTY on Linux, not FileAlreadyExistsException
+                if (findBootstrapped(executableName) == null) {
+                    if (Files.exists(dir)) {
+                        throw e;
+                    }
+                    Files.move(tmp, dir);
+                }
+            }
+        } finally {
+            if (Files.exists(tmp)) {
+                try (Stream<Path> files = Files.walk(tmp)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+
+        Path executable = findBootstrapped(executableName);
+        if (executable != null) {
+            logger.info("Bootstrapped jbang from the bundled distribution to " + executable);
+        }
+        return executable;
+    }
+}
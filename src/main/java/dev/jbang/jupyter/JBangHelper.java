@@ -1,29 +1,45 @@
 package dev.jbang.jupyter;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.dflib.jjava.jupyter.kernel.display.Renderer;
-import org.dflib.jjava.jupyter.kernel.display.mime.MIMEType;
 
 public class JBangHelper {
 
     final static Logger logger = Logger.getLogger(JBangHelper.class.getName());
     
+    /**
+     * Where jbang was found and what it looked like then.
+     *
+     * @param source how it was found, e.g. "PATH"
+     * @param mtime modification time of the executable, to notice upgrades
+     */
+    record JBangExecutable(String path, String source, long mtime) {
+    }
+
+    record JBangVersion(String path, long mtime, String version) {
+    }
+
+    private static volatile JBangExecutable jbangExecutable;
+    private static volatile JBangVersion jbangVersion;
+
     /**
      * Looks for nearest JBang executable in the following priority order:
      * 
@@ -32,13 +48,45 @@ public class JBangHelper {
      * 1. /bin/jbang
      * 2. jbang in 
      * 3. ~/.jbang/bin/jbang
+     * 4. jbang bootstrapped from the bundled distribution, see {@link JBangBootstrap}
      *
      * If none of the above are found, it will return null.
+     *
+     * The result is remembered for the session without checking the file system again;
+     * when running it fails, {@link #invalidateJBangExecutable()} makes the next call look again.
      * 
      * @return absolute patht to a JBang executable or null if none is found
      * @throws IOException
      */
     public static String findJBangExecutable() throws IOException {
+        JBangExecutable executable = getJBangExecutable();
+        return executable != null ? executable.path() : null;
+    }
+
+    static JBangExecutable getJBangExecutable() throws IOException {
+        JBangExecutable executable = jbangExecutable;
+        if (executable == null) {
+            executable = locateJBangExecutable();
+            jbangExecutable = executable;
+        }
+        return executable;
+    }
+
+    /**
+     * Forgets the executable found before if it was removed or upgraded since.
+     *
+     * @return true if it was forgotten
+     */
+    static boolean invalidateJBangExecutable() {
+        JBangExecutable executable = jbangExecutable;
+        if (executable != null && lastModified(Path.of(executable.path())) == executable.mtime()) {
+            return false;
+        }
+        jbangExecutable = null;
+        return true;
+    }
+
+    private static JBangExecutable locateJBangExecutable() throws IOException {
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
         String jbangExecutable = isWindows ? "jbang.cmd" : "jbang";
             
@@ -47,7 +95,7 @@ public class JBangHelper {
         if (jbangHome != null) {
             var homePath = Path.of(jbangHome).resolve("bin/" + jbangExecutable);
             if (Files.exists(homePath)) {
-                return homePath.toString();
+                return found(homePath, "JBANG_HOME");
             }
         }
 
@@ -57,7 +105,7 @@ public class JBangHelper {
             for (String dir : pathEnv.split(File.pathSeparator)) {
                 Path execPath = Path.of(dir).resolve(jbangExecutable);
                 if (Files.exists(execPath)) {
-                    return execPath.toString();
+                    return found(execPath, "PATH");
                 }
             }
         }
@@ -65,17 +113,57 @@ public class JBangHelper {
         // 3. ~/.jbang/bin/jbang
         var homePath = Path.of(System.getProperty("user.home")).resolve(".jbang/bin/" + jbangExecutable);
         if (Files.exists(homePath)) {
-            return homePath.toString();
+            return found(homePath, "~/.jbang/bin");
+        }
+
+        // 4. bundled distribution
+        Path bootstrapped = JBangBootstrap.bootstrap(jbangExecutable);
+        if (bootstrapped != null) {
+            return found(bootstrapped, "bundled distribution");
         }
 
-        // 4. none found
+        // 5. none found
         return null;
     }
 
+    private static JBangExecutable found(Path path, String source) {
+        return new JBangExecutable(path.toString(), source, lastModified(path));
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs `jbang version` once per executable, again only when the executable changed.
+     *
+     * @return the version, or null when jbang is not found
+     */
+    static String getJBangVersion() throws IOException {
+        JBangExecutable executable = getJBangExecutable();
+        if (executable == null) {
+            return null;
+        }
+        long mtime = lastModified(Path.of(executable.path()));
+        JBangVersion version = jbangVersion;
+        if (version == null || !version.path().equals(executable.path()) || version.mtime() != mtime) {
+            String output = JBangProcess.run(List.of(executable.path(), "version"), null, Duration.ofSeconds(30),
+                    stdout -> new BufferedReader(stdout).lines().collect(Collectors.joining("\n")).trim());
+            version = new JBangVersion(executable.path(), mtime, output);
+            jbangVersion = version;
+        }
+        return version.version();
+    }
+
     public static class JBangInfo {
         List<String> resolvedDependencies;
         List<String> dependencies;
         List<String> newResolvedDependencies;
+        List<KernelClasspath.Collapsed> collapsedDependencies = new ArrayList<>();
 
         public JBangInfo(List<String> resolvedDependencies, List<String> dependencies) {
             this.resolvedDependencies = resolvedDependencies;
@@ -86,6 +174,14 @@ public class JBangHelper {
             this.newResolvedDependencies = getNewResolvedDependencies(existingClasspath);
         }
 
+        /**
+         * Records what adding the resolved dependencies to the classpath did.
+         */
+        public void resolved(KernelClasspath.Addition addition) {
+            this.newResolvedDependencies = addition.added();
+            this.collapsedDependencies = addition.collapsed();
+        }
+
         public List<String> getNewResolvedDependencies(Set<String> existingClasspath) {
             return resolvedDependencies.stream()
                     .filter(dependency -> !existingClasspath.contains(dependency))
@@ -101,6 +197,13 @@ public class JBangHelper {
         public List<String> getNewResolvedDependencies() {
             return newResolvedDependencies;
         }
+
+        /**
+         * @return resolved jars that were not added as an equivalent jar is already on the classpath
+         */
+        public List<KernelClasspath.Collapsed> getCollapsedDependencies() {
+            return collapsedDependencies;
+        }
         
         public String toString() {
             StringBuilder sb = new StringBuilder("JBangInfo{");
@@ -109,163 +212,96 @@ public class JBangHelper {
             if (newResolvedDependencies != null) {
                 sb.append(",newResolvedDependencies=").append(newResolvedDependencies.size());
             }
+            if (!collapsedDependencies.isEmpty()) {
+                sb.append(",collapsedDependencies=").append(collapsedDependencies.size());
+            }
             sb.append('}');
             return sb.toString();
         }
 
         public static void registerAllRenderers(Renderer renderer) {
-            renderer
-    .createRegistration(dev.jbang.jupyter.JBangHelper.JBangInfo.class)
-    .preferring(MIMEType.TEXT_HTML)
-    .register((info, ctx) -> {
-        ctx.renderIfRequested(MIMEType.TEXT_HTML, () -> {
-            StringBuilder html = new StringBuilder();
-            
-            // Create set of new dependencies for quick lookup
-            Set<String> newDepsSet = new HashSet<>();
-            if (info.getNewResolvedDependencies() != null) {
-                newDepsSet.addAll(info.getNewResolvedDependencies());
-            }
-            
-            // Summary section
-            int totalRequested = (info.getDependencies() != null) ? info.getDependencies().size() : 0;
-            int totalResolved = (info.getResolvedDependencies() != null) ? info.getResolvedDependencies().size() : 0;
-            int totalNew = (info.getNewResolvedDependencies() != null) ? info.getNewResolvedDependencies().size() : 0;
-            
-            // Styles
-            html.append("<style>\n");
-            html.append(".jbang-compact { font-family: -apple-system, BlinkMacSystemFont, 'Segoe UI', Roboto, Oxygen, Ubuntu, Cantarell, sans-serif; font-size: 12px; margin: 4px 0; }\n");
-            html.append(".jbang-inline { display: inline-block; margin: 0; padding: 0; vertical-align: top; }\n");
-            html.append(".jbang-inline summary { display: inline; cursor: pointer; user-select: none; padding: 2px 6px; border-radius: 3px; transition: background 0.15s; }\n");
-            html.append(".jbang-inline summary:hover { background: #f1f3f5; }\n");
-            html.append(".jbang-inline-content { margin-top: 6px; padding: 8px; background: #f8f9fa; border-radius: 4px; border-left: 2px solid #667eea; }\n");
-            html.append(".jbang-inline-new .jbang-inline-content { border-left-color: #10b981; }\n");
-            html.append(".jbang-inline-coord .jbang-inline-content { border-left-color: #764ba2; }\n");
-            html.append(".jbang-list { list-style: none; padding: 0; margin: 0; font-size: 11px; }\n");
-            html.append(".jbang-list-item { padding: 4px 6px; margin: 2px 0; background: white; border-radius: 2px; border-left: 2px solid #667eea; font-family: 'Monaco', 'Menlo', monospace; color: #2d3748; word-break: break-all; cursor: help; }\n");
-            html.append(".jbang-list-item:hover { background: #f8f9fa; }\n");
-            html.append(".jbang-list-item-new { border-left-color: #10b981; }\n");
-            html.append(".jbang-list-item-old { opacity: 0.4; border-left-color: #adb5bd; }\n");
-            html.append(".jbang-list-item-old:hover { opacity: 0.6; }\n");
-            html.append(".jbang-list-item-coord { border-left-color: #764ba2; cursor: default; }\n");
-            html.append("</style>\n");
-            
-            if (totalRequested > 0 || totalResolved > 0) {
-                html.append("<div class='jbang-compact'>\n");
-                html.append("  🚀 JBang: ");
-            
-                // Requested dependencies - always show, inline expandable if > 0
-                if (info.getDependencies() != null && !info.getDependencies().isEmpty()) {
-                    html.append("<details class='jbang-inline jbang-inline-coord'><summary title='Requested Maven dependencies (click to expand)'>📦 <strong>").append(totalRequested).append("</strong></summary>");
-                    html.append("<div class='jbang-inline-content'><ul class='jbang-list'>");
-                    for (String dep : info.getDependencies()) {
-                        html.append("<li class='jbang-list-item jbang-list-item-coord'>").append(dep).append("</li>");
-                    }
-                    html.append("</ul></div></details>");
-                } else {
-                    html.append("<span title='Requested Maven dependencies'>📦 <strong>").append(totalRequested).append("</strong></span>");
-                }
-                
-                html.append(" | ");
-                
-                // New dependencies - always show, inline expandable if > 0
-                if (info.getNewResolvedDependencies() != null && !info.getNewResolvedDependencies().isEmpty()) {
-                    html.append("<details class='jbang-inline jbang-inline-new'><summary title='Newly added to classpath (click to expand)'>✨ <strong>").append(totalNew).append("</strong></summary>");
-                    html.append("<div class='jbang-inline-content'><ul class='jbang-list'>");
-                    for (String dep : info.getNewResolvedDependencies()) {
-                        String fileName = dep.substring(dep.lastIndexOf('/') + 1);
-                        html.append("<li class='jbang-list-item jbang-list-item-new' title='").append(dep).append("'>").append(fileName).append("</li>");
-                    }
-                    html.append("</ul></div></details>");
-                } else {
-                    html.append("<span title='Newly added to classpath'>✨ <strong>").append(totalNew).append("</strong></span>");
-                }
-                
-                html.append(" | ");
-                
-                // All resolved dependencies - always show, inline expandable if > 0
-                if (info.getResolvedDependencies() != null && !info.getResolvedDependencies().isEmpty()) {
-                    html.append("<details class='jbang-inline'><summary title='All resolved JARs (click to expand, grayed = cached)'>📚 <strong>").append(totalResolved).append("</strong></summary>");
-                    html.append("<div class='jbang-inline-content'><ul class='jbang-list'>");
-                    for (String dep : info.getResolvedDependencies()) {
-                        String fileName = dep.substring(dep.lastIndexOf('/') + 1);
-                        boolean isNew = newDepsSet.contains(dep);
-                        String itemClass = isNew ? "jbang-list-item jbang-list-item-new" : "jbang-list-item jbang-list-item-old";
-                        html.append("<li class='").append(itemClass).append("' title='").append(dep).append("'>").append(fileName).append("</li>");
-                    }
-                    html.append("</ul></div></details>");
-                } else {
-                    html.append("<span title='All resolved JARs'>📚 <strong>").append(totalResolved).append("</strong></span>");
-                }
-                
-                html.append("</div>\n");
-            } else {
-                html.append("<div class='jbang-compact'>🚀 JBang: <em>No dependencies</em></div>\n");
-            }
-            
-            return html.toString();
-        });
-    });
+            new JBangInfoRenderer().register(renderer);
         }
     }
-    public static JBangInfo getJBangResolvedDependencies(String scriptRef, String body, boolean inclAppJar) throws IOException {
-        try {
-            String jbangExecutable = findJBangExecutable();
-            if (jbangExecutable == null) {
-                throw new RuntimeException("JBang executable not found in $JBANG_HOME, $PATH, or ~/.jbang/bin. Please install JBang.");
-            }
-
-            ProcessBuilder pb = new ProcessBuilder(jbangExecutable, "info", "tools", scriptRef); // TODO: locate and install if need be
-            pb.redirectErrorStream(false);
-            Process process = pb.start();
+    private static volatile JBangResolver resolver = new ProcessJBangResolver();
 
-            if (body != null) {
-                try (java.io.OutputStream os = process.getOutputStream()) {
-                    os.write(body.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                    os.flush();
-                }
-            }
-
-            StringBuilder output = new StringBuilder();
-            try (java.io.InputStream is = process.getInputStream();
-                 java.util.Scanner scanner = new java.util.Scanner(is, StandardCharsets.UTF_8)) {
-                while (scanner.hasNextLine()) {
-                    output.append(scanner.nextLine()).append(System.lineSeparator());
-                }
-            }
+    /**
+     * Selects how jbang is invoked to resolve dependencies and build scripts.
+     */
+    public static void useResolver(JBangResolver jbangResolver) {
+        resolver = jbangResolver;
+    }
 
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                throw new RuntimeException("jbang info tools failed with exit code " + exitCode + ":\n" + output);
-            }
+    public static JBangResolver getResolver() {
+        return resolver;
+    }
 
+    public static JBangInfo getJBangResolvedDependencies(String scriptRef, String body, boolean inclAppJar) throws IOException {
+        return resolver.info(scriptRef, body, inclAppJar);
+    }
 
-            logger.fine("jbang info tools output: " + output.toString());
-            JsonObject json = JsonParser.parseString(output.toString()).getAsJsonObject();
+    /**
+     * Parses the json printed by `jbang info tools`.
+     */
+    static JBangInfo parseJBangInfo(String output, boolean inclAppJar) {
+        try {
+            return readJBangInfo(new StringReader(output), inclAppJar);
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
 
-            List<String> resolvedDependencies = new ArrayList<>();
-            if (json.has("resolvedDependencies") && json.get("resolvedDependencies").isJsonArray()) {
-                resolvedDependencies = StreamSupport.stream(json.getAsJsonArray("resolvedDependencies").spliterator(), false)
-                        .map(JsonElement::getAsString)
-                        .collect(Collectors.toList());
-            }
+    /**
+     * Reads the json printed by `jbang info tools` as it streams in, skipping what isn't needed.
+     */
+    static JBangInfo readJBangInfo(Reader in, boolean inclAppJar) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setStrictness(Strictness.LENIENT);
 
-            List<String> dependencies = new ArrayList<>();
-            if (json.has("dependencies") && json.get("dependencies").isJsonArray()) {
-                dependencies = StreamSupport.stream(json.getAsJsonArray("dependencies").spliterator(), false)
-                        .map(JsonElement::getAsString)
-                        .collect(Collectors.toList());
+        List<String> resolvedDependencies = new ArrayList<>();
+        List<String> dependencies = new ArrayList<>();
+        String applicationJar = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "resolvedDependencies":
+                    readStrings(reader, resolvedDependencies);
+                    break;
+                case "dependencies":
+                    readStrings(reader, dependencies);
+                    break;
+                case "applicationJar":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        applicationJar = reader.nextString();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            if (inclAppJar) {
-                resolvedDependencies.add(json.get("applicationJar").getAsString());
+        if (inclAppJar) {
+            if (applicationJar == null) {
+                throw new JsonParseException("jbang info has no applicationJar");
             }
+            resolvedDependencies.add(applicationJar);
+        }
 
-            return new JBangInfo(resolvedDependencies, dependencies);
-
+        return new JBangInfo(resolvedDependencies, dependencies);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private static void readStrings(JsonReader reader, List<String> into) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            into.add(reader.nextString());
         }
+        reader.endArray();
     }
 }
@@ -0,0 +1,181 @@
+package dev.jbang.jupyter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dflib.jjava.jupyter.kernel.display.Renderer;
+import org.dflib.jjava.jupyter.kernel.display.mime.MIMEType;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Renders {@link JBangInfo} as compact HTML.
+ *
+ * The stylesheet, about 1.3KB, is part of every rendering, so summaries keep their styles when
+ * an earlier output is cleared. Each list opens with at most {@link #MAX_ITEMS} entries; the
+ * rest follows in nested collapsed "more" sections of the same size, which need no script
+ * and so work in every frontend.
+ */
+public class JBangInfoRenderer {
+
+    static final int MAX_ITEMS = 50;
+
+    /** buffers grown beyond this are not kept for reuse */
+    static final int MAX_BUFFER_CAPACITY = 1 << 20;
+
+    static final String ASSETS = "<style>"
+            + ".jbang-compact{font-family:-apple-system,BlinkMacSystemFont,'Segoe UI',Roboto,sans-serif;font-size:12px;margin:4px 0}"
+            + ".jbang-inline{display:inline-block;margin:0;padding:0;vertical-align:top}"
+            + ".jbang-inline summary{display:inline;cursor:pointer;user-select:none;padding:2px 6px;border-radius:3px}"
+            + ".jbang-inline summary:hover{background:#f1f3f5}"
+            + ".jbang-inline-content{margin-top:6px;padding:8px;background:#f8f9fa;border-radius:4px;border-left:2px solid #667eea}"
+            + ".jbang-inline-new .jbang-inline-content{border-left-color:#10b981}"
+            + ".jbang-inline-coord .jbang-inline-content{border-left-color:#764ba2}"
+            + ".jbang-inline-collapsed .jbang-inline-content{border-left-color:#f59e0b}"
+            + ".jbang-list{list-style:none;padding:0;margin:0;font-size:11px}"
+            + ".jbang-list-item{padding:4px 6px;margin:2px 0;background:white;border-radius:2px;border-left:2px solid #667eea;font-family:Monaco,Menlo,monospace;color:#2d3748;word-break:break-all;cursor:help}"
+            + ".jbang-list-item-new{border-left-color:#10b981}"
+            + ".jbang-list-item-old{opacity:0.4;border-left-color:#adb5bd}"
+            + ".jbang-list-item-old:hover{opacity:0.6}"
+            + ".jbang-list-item-coord{border-left-color:#764ba2;cursor:default}"
+            + ".jbang-list-item-collapsed{border-left-color:#f59e0b}"
+            + ".jbang-list-more summary{padding:4px 6px;color:#667eea;cursor:pointer}"
+            + "</style>\n";
+
+    @FunctionalInterface
+    interface ItemWriter<T> {
+        void write(StringBuilder html, T item);
+    }
+
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    public void register(Renderer renderer) {
+        renderer
+                .createRegistration(JBangInfo.class)
+                .preferring(MIMEType.TEXT_HTML)
+                .register((info, ctx) -> ctx.renderIfRequested(MIMEType.TEXT_HTML, () -> render(info)));
+    }
+
+    String render(JBangInfo info) {
+        StringBuilder html = buffers.get();
+        html.setLength(0);
+        try {
+            html.append(ASSETS);
+            appendSummary(html, info);
+            return html.toString();
+        } finally {
+            if (html.capacity() > MAX_BUFFER_CAPACITY) {
+                buffers.remove();
+            }
+        }
+    }
+
+    private void appendSummary(StringBuilder html, JBangInfo info) {
+        List<String> requested = info.getDependencies() != null ? info.getDependencies() : List.of();
+        List<String> resolved = info.getResolvedDependencies() != null ? info.getResolvedDependencies() : List.of();
+        List<String> added = info.getNewResolvedDependencies() != null ? info.getNewResolvedDependencies() : List.of();
+
+        if (requested.isEmpty() && resolved.isEmpty()) {
+            html.append("<div class='jbang-compact'>🚀 JBang: <em>No dependencies</em></div>\n");
+            return;
+        }
+
+        html.append("<div class='jbang-compact'>\n  🚀 JBang: ");
+        appendList(html, " jbang-inline-coord", "📦", "Requested Maven dependencies", "", requested,
+                (out, dep) -> out.append("<li class='jbang-list-item jbang-list-item-coord'>").append(escape(dep)).append("</li>"));
+        html.append(" | ");
+        appendList(html, " jbang-inline-new", "✨", "Newly added to classpath", "", added,
+                (out, dep) -> appendJar(out, "jbang-list-item jbang-list-item-new", dep, fileName(dep)));
+        html.append(" | ");
+        Set<String> addedSet = new HashSet<>(added);
+        appendList(html, "", "📚", "All resolved JARs", ", grayed = cached", resolved,
+                (out, dep) -> appendJar(out,
+                        addedSet.contains(dep) ? "jbang-list-item jbang-list-item-new" : "jbang-list-item jbang-list-item-old",
+                        dep, fileName(dep)));
+        if (!info.getCollapsedDependencies().isEmpty()) {
+            html.append(" | ");
+            appendList(html, " jbang-inline-collapsed", "♻️", "Not added, an equivalent JAR is already on the classpath", "",
+                    info.getCollapsedDependencies(),
+                    (out, collapsed) -> appendJar(out, "jbang-list-item jbang-list-item-collapsed",
+                            collapsed.path() + " kept " + collapsed.keptPath(),
+                            fileName(collapsed.path()) + ": " + collapsed.reason()));
+        }
+        html.append("</div>\n");
+    }
+
+    /**
+     * Appends the count, expandable to the items when there are any.
+     */
+    private <T> void appendList(StringBuilder html, String variant, String icon, String title, String detail,
+            List<T> items, ItemWriter<T> writer) {
+        if (items.isEmpty()) {
+            html.append("<span title='").append(title).append("'>").append(icon)
+                    .append(" <strong>0</strong></span>");
+            return;
+        }
+        html.append("<details class='jbang-inline").append(variant).append("'><summary title='").append(title)
+                .append(" (click to expand").append(detail).append(")'>").append(icon).append(" <strong>")
+                .append(items.size()).append("</strong></summary>")
+                .append("<div class='jbang-inline-content'><ul class='jbang-list'>");
+        int open = 0;
+        for (int offset = 0; offset < items.size(); offset += MAX_ITEMS) {
+            if (offset > 0) {
+                html.append("<li><details class='jbang-list-more'><summary>… ").append(items.size() - offset)
+                        .append(" more</summary><ul class='jbang-list'>");
+                open++;
+            }
+            int end = Math.min(items.size(), offset + MAX_ITEMS);
+            for (int i = offset; i < end; i++) {
+                writer.write(html, items.get(i));
+            }
+        }
+        for (int i = 0; i < open; i++) {
+            html.append("</ul></details></li>");
+        }
+        html.append("</ul></div></details>");
+    }
+
+    private static void appendJar(StringBuilder html, String itemClass, String title, String text) {
+        html.append("<li class='").append(itemClass).append("' title='").append(escape(title)).append("'>")
+                .append(escape(text)).append("</li>");
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    static String escape(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    if (escaped != null) {
+                        escaped.append(text.charAt(i));
+                    }
+                    continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped != null ? escaped.toString() : text;
+    }
+}
@@ -7,10 +7,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
 import org.dflib.jjava.jupyter.channels.JupyterConnection;
@@ -20,6 +25,7 @@ import org.dflib.jjava.jupyter.kernel.JupyterIO;
 import org.dflib.jjava.jupyter.kernel.LanguageInfo;
 import org.dflib.jjava.jupyter.kernel.ReplacementOptions;
 import org.dflib.jjava.jupyter.kernel.comm.CommManager;
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
 import org.dflib.jjava.jupyter.kernel.display.Renderer;
 import org.dflib.jjava.jupyter.kernel.history.HistoryManager;
 import org.dflib.jjava.jupyter.kernel.magic.MagicParser;
@@ -36,6 +42,8 @@ import org.dflib.jjava.kernel.JavaKernelBuilder;
 import org.dflib.jjava.kernel.execution.CodeEvaluator;
 import org.dflib.jjava.kernel.execution.JJavaExecutionControlProvider;
 
+import dev.jbang.jupyter.ExecutionTracer.CellTrace;
+import dev.jbang.jupyter.ExecutionTracer.Phase;
 import dev.jbang.jupyter.JBangHelper.JBangInfo;
 import jdk.jshell.JShell;
 
@@ -50,58 +58,576 @@ public class JBangKernel extends JavaKernel {
 
     @Override
     public Object evalRaw(String source) {
+        if (evaluator == null) { // TODO: this happens because javakernel inits extensions that calls evals
+            return super.evalRaw(source);
+        }
+
+        // evaluations nested in this one, e.g. by magics, are part of its eval span
+        CellTrace trace = this.trace;
+        this.trace = CellTrace.NONE;
         try {
-            if (evaluator == null) { // TODO: this happens because javakernel inits extensions that calls evals
-                return super.evalRaw(source);
+            if (applyJvmMagics(source)) {
+                // the cell runs when it is replayed in the relaunched JVM
+                return null;
             }
 
+            long start = trace.start();
             source = magicParser.resolveMagics(source);
+            trace.end(Phase.MAGICS, start);
+
             // hook in and call jbang if seems relevant/needed
-            if (source.contains("//DEPS")) { // TODO: use pattern to spot other directives
+            start = trace.start();
+            Directives directives = Directives.scan(source);
+            trace.end(Phase.DIRECTIVES, start);
+            if (!directives.isEmpty()) {
                 try {
-                    JBangInfo jbangInfo = JBangHelper.getJBangResolvedDependencies("-", source, false);
-                    addToClasspath(jbangInfo);
+                    applyDirectives(directives, trace);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
+                if (jvmSession.isRestartRequested()) {
+                    // the cell runs when it is replayed in the relaunched JVM
+                    return null;
+                }
             }
-            return evaluator.eval(source);
+
+            // JShell compiles and executes in one call, so both are in the eval span
+            start = trace.start();
+            Object result = evaluator.eval(source);
+            trace.end(Phase.EVAL, start);
+            return result;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error evaluating source: " + source, e);
             throw e;
+        } finally {
+            this.trace = trace;
+            // evaluations can declare new names to complete
+            completionService.invalidate();
         }
     }
 
-    LinkedHashSet<String> classpath = new LinkedHashSet<>(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
-
     /**
-     * Add to classpath while avoiding duplicates
-     * to not have classpath constant growing or reloaded for no reason.
+     * Renders the result, streaming very large strings and collections instead of
+     * sending them as a single execute_result.
      */
     @Override
-    public void addToClasspath(String paths) {
-        String cp = "";
+    public DisplayData eval(String expr) {
+        if (evaluator == null) {
+            return super.eval(expr);
+        }
+
+        if (replayReport != null) {
+            System.out.println(replayReport);
+            replayReport = null;
+        }
+
+        long evalStart = System.nanoTime();
+        CellTrace trace = tracer.begin(expr);
+        this.trace = trace;
+        Throwable error = null;
+        executing = true;
+        try {
+            Object result = evalRaw(expr);
+            jvmSession.record(expr);
+            if (result == null) {
+                return null;
+            }
+            if (result instanceof DisplayData) {
+                trace.result((DisplayData) result);
+                countDisplayed((DisplayData) result);
+                return (DisplayData) result;
+            }
+            long start = trace.start();
+            if (streamingDisplay.shouldStream(result)) {
+                streamingDisplay.stream(result);
+                trace.end(Phase.RENDER, start);
+                return null;
+            }
+            DisplayData data = getRenderer().render(result);
+            trace.end(Phase.RENDER, start);
+            trace.result(data);
+            countDisplayed(data);
+            return data;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            metrics.evalErrors.increment();
+            throw e;
+        } finally {
+            executing = false;
+            metrics.evalSeconds.recordSince(evalStart);
+            this.trace = CellTrace.NONE;
+            trace.classpathSize(classpath.getPaths().size());
+            trace.finish(error);
+        }
+    }
+
+    @Override
+    public void display(DisplayData data) {
+        if (jvmSession.isReplaying()) {
+            return;
+        }
+        countDisplayed(data);
+        super.display(data);
+    }
+
+    @Override
+    public void updateDisplay(String id, DisplayData data) {
+        if (jvmSession.isReplaying()) {
+            return;
+        }
+        countDisplayed(data);
+        super.updateDisplay(id, data);
+    }
+
+    private void countDisplayed(DisplayData data) {
+        if (data == null) {
+            return;
+        }
+        long chars = 0;
+        for (Object value : data.getData().values()) {
+            if (value instanceof CharSequence) {
+                chars += ((CharSequence) value).length();
+            }
+        }
+        metrics.displayChars.add(chars);
+    }
+
+    /**
+     * Adds the dependencies declared by the directives to the classpath
+     * and reports directives that can't take effect in a running kernel.
+     */
+    void applyDirectives(Directives directives, CellTrace trace) throws IOException {
+        if (!directives.getDeps().isEmpty()) {
+            long start = trace.start();
+            JBangInfo jbangInfo = resolveDependencies(directives);
+            trace.end(Phase.RESOLVE, start);
+            if (jbangInfo != null) {
+                start = trace.start();
+                addToClasspath(jbangInfo);
+                trace.end(Phase.CLASSPATH, start);
+            }
+        }
+        if (!directives.getSources().isEmpty()) {
+            System.err.println("//SOURCES is not supported in cells, use %jbang or %load instead: " + directives.getSources());
+        }
+        if (!directives.getCompileOptions().isEmpty()) {
+            System.err.println("//COMPILE_OPTIONS can't be changed in a running kernel, ignoring: " + directives.getCompileOptions());
+        }
+        if (!directives.getRuntimeOptions().isEmpty() && jvmSession.apply(directives.getRuntimeOptions())) {
+            relaunch();
+        }
+    }
 
-        for (String path : paths.split(File.pathSeparator)) {
-            if (classpath.contains(path)) {
+    /**
+     * Applies the %jvm lines of a cell before anything of it runs, so a cell that needs a
+     * relaunch doesn't run in this JVM first.
+     *
+     * @return whether a relaunch was requested
+     */
+    boolean applyJvmMagics(String source) {
+        if (jvmSession.isReplaying() || !source.contains("%jvm")) {
+            return false;
+        }
+        for (List<String> args : Directives.scan(source).getJvmMagics()) {
+            if (args.isEmpty()) {
                 continue;
             }
-            classpath.add(path);
-            if (cp.isEmpty()) {
-                cp = path;
+            boolean relaunch = args.equals(List.of("reset")) ? jvmSession.reset() : jvmSession.apply(args);
+            if (relaunch) {
+                relaunch();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Announces the relaunch requested by the session. The connection is closed once the
+     * current cell is answered, and the kernel then relaunched with the options of the
+     * session, see {@link JvmSession#relaunch(String[])}.
+     */
+    public void relaunch() {
+        System.out.println("Relaunching the kernel JVM with " + String.join(" ", jvmSession.getOptions())
+                + ", replaying " + jvmSession.getCells().size() + " cells and this one");
+    }
+
+    /**
+     * Closes the connection for a requested relaunch. Runs once jjava sent the execute_reply
+     * and idle status of the cell, see {@link KernelConnection}; on its own thread as
+     * closing waits for the shell thread this is called on.
+     */
+    private void closeIfRestartRequested() {
+        JupyterConnection current = connection;
+        if (current == null || closing || !jvmSession.isRestartRequested()) {
+            return;
+        }
+        closing = true;
+        Thread closer = new Thread(current::close, "jbang-relaunch");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /**
+     * Evaluates the cells of the session again after a relaunch, without displaying anything.
+     * How that went is shown with the next cell, as nothing can be sent before a request.
+     */
+    public void replay() {
+        List<String> cells = jvmSession.getCells();
+        if (cells.isEmpty()) {
+            return;
+        }
+        List<String> failures = new ArrayList<>();
+        jvmSession.setReplaying(true);
+        try {
+            for (String cell : cells) {
+                try {
+                    evalRaw(cell);
+                } catch (RuntimeException e) {
+                    failures.add(cell.strip().lines().findFirst().orElse("") + ": " + e.getMessage());
+                    logger.log(Level.WARNING, "Could not replay cell: " + cell, e);
+                }
+            }
+        } finally {
+            jvmSession.setReplaying(false);
+        }
+        logger.info("Replayed " + cells.size() + " cells, " + failures.size() + " failed");
+
+        StringBuilder report = new StringBuilder("Relaunched the kernel JVM with ")
+                .append(String.join(" ", jvmSession.getOptions())).append(" and replayed ").append(cells.size())
+                .append(" cells without showing their output, including the one that relaunched it");
+        if (failures.isEmpty()) {
+            report.append("; all succeeded");
+        } else {
+            report.append("; ").append(failures.size()).append(" failed:");
+            failures.forEach(failure -> report.append("\n  ").append(failure));
+        }
+        replayReport = report.toString();
+    }
+
+    public JvmSession getJvmSession() {
+        return jvmSession;
+    }
+
+    /**
+     * Resolves the dependencies of a cell, joining a prefetch of the same
+     * dependencies if one was started while the cell was edited.
+     *
+     * Only coordinates not already resolved in this session are sent to jbang;
+     * when there are none, null is returned and jbang is not called at all.
+     */
+    JBangInfo resolveDependencies(Directives directives) throws IOException {
+        ResolutionRequest request = planResolution(directives);
+        if (request == null) {
+            logger.fine("All dependencies already resolved, skipping jbang");
+            return null;
+        }
+
+        long start = System.nanoTime();
+        JBangInfo jbangInfo = null;
+        DependencyPrefetcher.Prefetch prefetch = prefetcher.take(request.key());
+        if (prefetch != null) {
+            try {
+                prefetch.showProgress(description -> new JBangProgressDisplay(this, description));
+                jbangInfo = prefetch.future().join();
+            } catch (CompletionException | CancellationException e) {
+                // resolve again below so the failure is reported from this cell
+                logger.log(Level.FINE, "Prefetch failed, resolving again", e);
+            }
+        }
+        if (jbangInfo == null) {
+            jbangInfo = resolve(request);
+        }
+        resolvedCoordinates.addAll(request.coordinates());
+        resolutions.put(request.key(), new Resolved(request, jbangInfo));
+        metrics.resolveSeconds.recordSince(start);
+        return jbangInfo;
+    }
+
+    /**
+     * Starts resolving the dependencies of a cell in the background, unless they are still
+     * being typed: the cursor is on a //DEPS line or a coordinate is not complete.
+     */
+    void prefetchDependencies(String code, int cursor) {
+        Directives directives = Directives.scan(code);
+        if (!directives.hasCompleteDeps() || !JBangHelper.getResolver().supportsConcurrentUse()) {
+            return;
+        }
+        int at = Math.max(0, Math.min(cursor, code.length()));
+        int lineStart = code.lastIndexOf('\n', at - 1) + 1;
+        if (code.startsWith("//DEPS", lineStart)) {
+            return;
+        }
+        ResolutionRequest request = planResolution(directives);
+        if (request != null) {
+            prefetcher.prefetch(request.key(), () -> resolve(request));
+        }
+    }
+
+    /**
+     * @return what needs resolving for the cell, or null if all its coordinates are known
+     */
+    ResolutionRequest planResolution(Directives directives) {
+        List<String> newCoordinates = new ArrayList<>();
+        for (String coordinate : directives.getDeps()) {
+            if (!resolvedCoordinates.contains(coordinate) && !newCoordinates.contains(coordinate)) {
+                newCoordinates.add(coordinate);
+            }
+        }
+        if (newCoordinates.isEmpty()) {
+            return null;
+        }
+        List<String> requestDirectives = directives.getResolutionLines(newCoordinates);
+        return new ResolutionRequest(newCoordinates, requestDirectives, DependencyCache.key(requestDirectives));
+    }
+
+    /**
+     * Resolves using the lock file of the notebook when it locks the same directives,
+     * or else the on-disk cache when the same directives were resolved before.
+     */
+    JBangInfo resolve(ResolutionRequest request) throws IOException {
+        JBangInfo jbangInfo = dependencyLock.get(request.key());
+        if (jbangInfo != null) {
+            metrics.dependencyLockHits.increment();
+            return jbangInfo;
+        }
+        return resolveUnlocked(request);
+    }
+
+    private JBangInfo resolveUnlocked(ResolutionRequest request) throws IOException {
+        JBangInfo jbangInfo = dependencyCache.get(request.key());
+        if (jbangInfo != null) {
+            metrics.dependencyCacheHits.increment();
+        } else {
+            metrics.dependencyCacheMisses.increment();
+            jbangInfo = JBangHelper.getJBangResolvedDependencies("-", String.join("\n", request.directives()), false);
+            dependencyCache.put(request.key(), request.directives(), jbangInfo);
+        }
+        return jbangInfo;
+    }
+
+    record ResolutionRequest(List<String> coordinates, List<String> directives, String key) {
+    }
+
+    record Resolved(ResolutionRequest request, JBangInfo info) {
+    }
+
+    /**
+     * Writes the resolutions of the session to the lock file of the notebook.
+     *
+     * @return what was locked
+     */
+    String lockDependencies() throws IOException {
+        List<DependencyLock.Resolution> locked = new ArrayList<>();
+        List<String> unlockable = new ArrayList<>();
+        int jars = 0;
+        for (Resolved resolved : resolutions.values()) {
+            DependencyLock.Resolution resolution = DependencyLock.Resolution.of(resolved.request().key(),
+                    resolved.request().directives(), resolved.info());
+            if (resolution == null) {
+                unlockable.add(String.join(" ", resolved.request().directives()));
+                continue;
+            }
+            locked.add(resolution);
+            jars += resolved.info().getResolvedDependencies().size();
+        }
+        dependencyLock.write(locked);
+        String message = "Locked " + locked.size() + " resolutions with " + jars + " jars to " + dependencyLock.getFile();
+        if (!unlockable.isEmpty()) {
+            message += "\nNot locked as they resolve to folders or missing files: " + unlockable;
+        }
+        return message;
+    }
+
+    /**
+     * Adds the jars of all locked resolutions to the classpath. Resolutions whose jars are
+     * missing or changed, e.g. on another machine, are resolved again at their locked
+     * coordinates, bypassing the dependency cache. When that gives the same artifacts with
+     * the same content only their paths are updated in the lock file; otherwise the
+     * differences are reported and the lock file is left as is until %deps lock.
+     *
+     * @return what was synced
+     */
+    String syncDependencies() throws IOException {
+        List<DependencyLock.Resolution> locked = dependencyLock.getResolutions();
+        if (locked.isEmpty()) {
+            return "Nothing locked in " + dependencyLock.getFile() + ", lock the resolutions of the session with %deps lock";
+        }
+        List<DependencyLock.Resolution> synced = new ArrayList<>();
+        List<JBangInfo> infos = new ArrayList<>();
+        List<String> differences = new ArrayList<>();
+        List<String> unpinned = new ArrayList<>();
+        int resolvedAgain = 0;
+        int updated = 0;
+        for (DependencyLock.Resolution resolution : locked) {
+            List<String> directives = resolution.getDirectives();
+            ResolutionRequest request = new ResolutionRequest(
+                    Directives.scan(String.join("\n", directives)).getDeps(), directives, resolution.getKey());
+            JBangInfo jbangInfo = dependencyLock.get(resolution.getKey());
+            if (jbangInfo != null) {
+                metrics.dependencyLockHits.increment();
+                synced.add(resolution);
             } else {
-                cp += File.pathSeparator + path;
+                List<String> pinned = resolution.pinnedDirectives();
+                if (pinned == null) {
+                    unpinned.add(String.join(" ", directives));
+                }
+                jbangInfo = JBangHelper.getJBangResolvedDependencies("-",
+                        String.join("\n", pinned != null ? pinned : directives), false);
+                resolvedAgain++;
+                DependencyLock.Resolution fresh = DependencyLock.Resolution.of(resolution.getKey(), directives, jbangInfo);
+                List<String> changes = fresh != null
+                        ? DependencyLock.differences(resolution, fresh)
+                        : List.of("resolves to folders or missing files");
+                if (changes.isEmpty()) {
+                    synced.add(fresh);
+                    updated++;
+                } else {
+                    synced.add(resolution);
+                    differences.add(String.join(" ", directives) + ": " + String.join(", ", changes));
+                }
             }
+            resolvedCoordinates.addAll(request.coordinates());
+            resolutions.put(request.key(), new Resolved(request, jbangInfo));
+            infos.add(jbangInfo);
         }
+        if (updated > 0) {
+            dependencyLock.write(synced);
+        }
+        addToClasspath(JBangLineMagic.merge(infos));
+
+        StringBuilder message = new StringBuilder("Synced " + locked.size() + " resolutions from " + dependencyLock.getFile());
+        if (resolvedAgain > 0) {
+            message.append(", resolved ").append(resolvedAgain).append(" again as their jars were missing or changed");
+        }
+        if (updated > 0) {
+            message.append("\nUpdated the jar paths of ").append(updated)
+                    .append(" resolutions in the lock file, their artifacts and content are unchanged");
+        }
+        if (!unpinned.isEmpty()) {
+            message.append("\nResolved from their //DEPS, so possibly to other versions, as some locked jars are snapshots"
+                    + " without timestamp or not in a Maven repository: ")
+                    .append(unpinned);
+        }
+        if (!differences.isEmpty()) {
+            message.append("\nThese resolve differently than locked, the lock file keeps them until %deps lock:");
+            differences.forEach(difference -> message.append("\n  ").append(difference));
+        }
+        return message.toString();
+    }
+
+    DependencyLock getDependencyLock() {
+        return dependencyLock;
+    }
+
+    /**
+     * Maven coordinates resolved so far in this session.
+     */
+    final Set<String> resolvedCoordinates = new LinkedHashSet<>();
+
+    private final DependencyCache dependencyCache = DependencyCache.createDefault();
+
+    private final DependencyLock dependencyLock = DependencyLock.createDefault();
+
+    /**
+     * Resolutions of the session in order, keyed on their dependency cache key, to lock them.
+     */
+    private final Map<String, Resolved> resolutions = new LinkedHashMap<>();
+
+    private final DependencyPrefetcher prefetcher = new DependencyPrefetcher();
+
+    private final CompletionService completionService = new CompletionService(this::completeWithClassIndex,
+            this::inspectWithJShell, this::isCompleteWithJShell);
+
+    private final ClassIndex classIndex = ClassIndex.createDefault();
+
+    /**
+     * Bumped on every classpath change, as that changes what can be completed.
+     */
+    private volatile long classpathGeneration;
+
+    final KernelClasspath classpath;
+
+    private final StreamingDisplay streamingDisplay;
+
+    private final ExecutionTracer tracer = new ExecutionTracer();
+
+    private final KernelMetrics metrics = KernelMetrics.get();
+
+    private final JvmSession jvmSession;
+
+    private JupyterConnection connection;
+
+    /**
+     * Whether the connection is being closed for a relaunch.
+     */
+    private volatile boolean closing;
+
+    /**
+     * Outcome of the replay after a relaunch, shown with the next cell.
+     */
+    private String replayReport;
+
+    /**
+     * Whether a cell is running, to show the progress of jbang processes it starts.
+     */
+    private volatile boolean executing;
+
+    /**
+     * Trace of the cell being executed, only used on the shell thread.
+     */
+    private CellTrace trace = CellTrace.NONE;
+
+    /**
+     * Add to classpath while avoiding duplicates and collapsing other versions of loaded artifacts
+     * to not have classpath constant growing or reloaded for no reason.
+     */
+    @Override
+    public void addToClasspath(String paths) {
+        addToClasspath(Arrays.asList(paths.split(File.pathSeparator)));
+    }
 
-        if (!cp.isEmpty()) {
-            super.addToClasspath(paths);
+    /**
+     * Adds the jars with a single classpath change.
+     */
+    KernelClasspath.Addition addToClasspath(List<String> paths) {
+        KernelClasspath.Addition addition = classpath.add(paths);
+        List<String> added = addition.added();
+        if (!added.isEmpty()) {
+            super.addToClasspath(String.join(File.pathSeparator, added));
+            classpathGeneration++;
+            classIndex.indexAsync(added);
         }
+        return addition;
+    }
+
+    /**
+     * Records per-cell timings when enabled with %log trace.
+     */
+    public ExecutionTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Resolutions cached on disk, also across sessions.
+     */
+    DependencyCache getDependencyCache() {
+        return dependencyCache;
+    }
+
+    /**
+     * Index of the classes in jars added to the classpath.
+     */
+    public ClassIndex getClassIndex() {
+        return classIndex;
     }
 
     @Override
     public void becomeHandlerForConnection(JupyterConnection connection) {
         super.becomeHandlerForConnection(connection);
+        this.connection = connection;
+        if (connection instanceof KernelConnection) {
+            ((KernelConnection) connection).setAfterExecute(this::closeIfRestartRequested);
+        }
         connection.setHandler(MessageType.COMPLETE_REQUEST, this::handleCompleteRequest);
     }
 
@@ -110,39 +636,93 @@ public class JBangKernel extends JavaKernel {
         CompleteRequest request = (CompleteRequest) completeRequestMessage.getContent();
         env.setBusyDeferIdle();
 
+        long start = System.nanoTime();
         try {
-            ReplacementOptions options = this.complete(request.getCode(), request.getCursorPos());
-            if (options == null) {
-                env.reply(new CompleteReply(Collections.emptyList(), request.getCursorPos(), request.getCursorPos(),
-                        Collections.emptyMap()));
-            } else {
-                // adjust the completions to include the experimental types
-                // for nicer combobox rendering
-                Map<String, Object> metadata = new HashMap<>();
-                List<JupyterExperimentalType> experimentalTypes = new ArrayList<>();
-                // List<JupyterExtendedMetadataEntry> extendedMetadata = new ArrayList<>();
-                options.getReplacements().forEach(replacement -> {
-                    String type = "code";
-                    // poor man type detection
-                    if (replacement.startsWith("%")) {
-                        type = "magic";
-                    } else if (replacement.endsWith("(") || replacement.endsWith("()")) {
-                        type = "function";
-                    }
-                    experimentalTypes.add(new JupyterExperimentalType(replacement, type, options.getSourceStart(),
-                            options.getSourceEnd()));
-                    // metadata.put("experimental", experimentalTypes);
-                });
-                metadata.put("_jupyter_types_experimental", experimentalTypes);
-                env.reply(new CompleteReply(options.getReplacements(), options.getSourceStart(), options.getSourceEnd(),
-                        metadata));
-            }
+            prefetchDependencies(request.getCode(), request.getCursorPos());
+            ReplacementOptions options = completionService.complete(request.getCode(), request.getCursorPos(),
+                    classpathGeneration);
+            env.reply(buildCompleteReply(options, request.getCursorPos()));
+            metrics.completionSeconds.recordSince(start);
         } catch (Exception var5) {
             env.replyError(CompleteReply.MESSAGE_TYPE.error(), ErrorReply.of(var5));
         }
 
     }
 
+    /**
+     * Completes with JShell and, when JShell has no suggestion for a capitalized name,
+     * with fully qualified names of matching classes from the class index.
+     */
+    ReplacementOptions completeWithClassIndex(String code, int at) throws Exception {
+        ReplacementOptions options = super.complete(code, at);
+        if (options != null && !options.getReplacements().isEmpty()) {
+            return options;
+        }
+        int start = at;
+        while (start > 0 && Character.isJavaIdentifierPart(code.charAt(start - 1))) {
+            start--;
+        }
+        if (at - start < 2 || !Character.isUpperCase(code.charAt(start))) {
+            return options;
+        }
+        List<String> classNames = classIndex.findByPrefix(code.substring(start, at), 50).stream()
+                .map(ClassIndex.ClassMatch::className)
+                .distinct()
+                .collect(Collectors.toList());
+        return classNames.isEmpty() ? options : new ReplacementOptions(classNames, start, at);
+    }
+
+    static CompleteReply buildCompleteReply(ReplacementOptions options, int cursorPos) {
+        if (options == null) {
+            return new CompleteReply(Collections.emptyList(), cursorPos, cursorPos, Collections.emptyMap());
+        }
+        // adjust the completions to include the experimental types
+        // for nicer combobox rendering
+        Map<String, Object> metadata = new HashMap<>();
+        List<JupyterExperimentalType> experimentalTypes = new ArrayList<>();
+        // List<JupyterExtendedMetadataEntry> extendedMetadata = new ArrayList<>();
+        options.getReplacements().forEach(replacement -> {
+            String type = "code";
+            // poor man type detection
+            if (replacement.startsWith("%")) {
+                type = "magic";
+            } else if (replacement.endsWith("(") || replacement.endsWith("()")) {
+                type = "function";
+            }
+            experimentalTypes.add(new JupyterExperimentalType(replacement, type, options.getSourceStart(),
+                    options.getSourceEnd()));
+            // metadata.put("experimental", experimentalTypes);
+        });
+        metadata.put("_jupyter_types_experimental", experimentalTypes);
+        return new CompleteReply(options.getReplacements(), options.getSourceStart(), options.getSourceEnd(),
+                metadata);
+    }
+
+    @Override
+    public DisplayData inspect(String code, int at, boolean extraDetail) throws Exception {
+        prefetchDependencies(code, at);
+        return completionService.inspect(code, at, extraDetail, classpathGeneration);
+    }
+
+    @Override
+    public String isComplete(String code) {
+        try {
+            return completionService.isComplete(code, classpathGeneration);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private DisplayData inspectWithJShell(String code, int at, boolean extraDetail) throws Exception {
+        return super.inspect(code, at, extraDetail);
+    }
+
+    private String isCompleteWithJShell(String code) {
+        return super.isComplete(code);
+    }
+
     record JupyterExperimentalType(
             String text,
             String type,
@@ -179,7 +759,10 @@ public class JBangKernel extends JavaKernel {
             boolean extensionsEnabled,
             StringStyler errorStyler,
             JShell jShell,
-            CodeEvaluator evaluator) {
+            CodeEvaluator evaluator,
+            KernelClasspath.ConflictPolicy conflictPolicy,
+            StreamingDisplay.Limits streamingLimits,
+            JvmSession jvmSession) {
 
         super(
                 name,
@@ -195,14 +778,71 @@ public class JBangKernel extends JavaKernel {
                 extensionsEnabled,
                 errorStyler, jShell, evaluator);
         this.evaluator = evaluator;
+        this.jvmSession = jvmSession;
+        this.classpath = new KernelClasspath(conflictPolicy);
+        this.classpath.addLoaded(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        this.streamingDisplay = new StreamingDisplay(streamingLimits);
+        KernelMetrics.get().gauge("jbang_kernel_classpath_entries", "Entries on the kernel classpath",
+                () -> classpath.getPaths().size());
+
+        new JBangInfoRenderer().register(renderer);
+
+        // prefetches run while cells are edited, their progress is shown by the cell joining them
+        JBangProcess.setProgressListener((caller, description) -> caller.getName().equals(DependencyPrefetcher.THREAD_NAME)
+                ? prefetcher.startProgress(description)
+                : executing ? new JBangProgressDisplay(this, description) : null);
+    }
 
-        JBangInfo.registerAllRenderers(renderer);
+    /**
+     * Also kills jbang processes started by the cell, e.g. a resolution stuck on a download.
+     */
+    @Override
+    public void interrupt() {
+        super.interrupt();
+        JBangHelper.getResolver().cancel();
     }
 
     public static class JBangKernelBuilder extends JavaKernelBuilder<JBangKernelBuilder, JBangKernel> {
+        private KernelClasspath.ConflictPolicy conflictPolicy = KernelClasspath.ConflictPolicy.FIRST_WINS;
+        private int memoizedRenders;
+        private StreamingDisplay.Limits streamingLimits = StreamingDisplay.Limits.DEFAULT;
+        private JvmSession jvmSession;
+
         private JBangKernelBuilder() {
         }
 
+        /**
+         * How to handle jars of an artifact that is already on the classpath in another version.
+         */
+        public JBangKernelBuilder conflictPolicy(KernelClasspath.ConflictPolicy conflictPolicy) {
+            this.conflictPolicy = conflictPolicy;
+            return this;
+        }
+
+        /**
+         * How many renderings of immutable values (strings, numbers, enums...) to memoize, 0 to disable.
+         */
+        public JBangKernelBuilder memoizedRenders(int memoizedRenders) {
+            this.memoizedRenders = memoizedRenders;
+            return this;
+        }
+
+        /**
+         * When to stream large results in chunks rather than sending them at once.
+         */
+        public JBangKernelBuilder streamingLimits(StreamingDisplay.Limits streamingLimits) {
+            this.streamingLimits = streamingLimits;
+            return this;
+        }
+
+        /**
+         * JVM options and cells of the session, restored when the kernel was relaunched.
+         */
+        public JBangKernelBuilder jvmSession(JvmSession jvmSession) {
+            this.jvmSession = jvmSession;
+            return this;
+        }
+
         @Override
         public JBangKernel build() {
 
@@ -231,12 +871,15 @@ public class JBangKernel extends JavaKernel {
                     buildExtensionsEnabled(),
                     buildErrorStyler(),
                     jShell,
-                    buildCodeEvaluator(jShell, jShellExecutionControlProvider));
+                    buildCodeEvaluator(jShell, jShellExecutionControlProvider),
+                    conflictPolicy,
+                    streamingLimits,
+                    jvmSession != null ? jvmSession : new JvmSession(null, new JvmSession.State()));
         }
 
         @Override
         protected Renderer buildRenderer() {
-            return new DelegateRenderer(super.buildRenderer());
+            return new DelegateRenderer(super.buildRenderer(), memoizedRenders);
         }
 
         protected List<HelpLink> buildHelpLinks() {
@@ -245,7 +888,10 @@ public class JBangKernel extends JavaKernel {
                     new HelpLink("JJava homepage", "https://github.com/dflib/jjava"));
         }
 
-        
+        /**
+         * Builds JShell on jjava's execution engine, which runs snippets in this JVM on a thread
+         * per cell, interrupted on kernel interrupts and stopped after the timeout if one is set.
+         */
         protected JShell buildJShell(JJavaExecutionControlProvider jShellExecControlProvider) {
             Map<String, String> execControlParams = new HashMap();
             execControlParams.put("registration-id", this.jShellExecControlID);
@@ -259,6 +905,8 @@ public class JBangKernel extends JavaKernel {
                     .in(System.in)
                     .executionEngine(jShellExecControlProvider, execControlParams)
                     .compilerOptions((String[])this.compilerOpts.toArray(new String[0]))
+                    // only used by remote execution engines; snippets run in the kernel JVM,
+                    // whose options are changed by relaunching it, see JvmSession
                     .remoteVMOptions("--enable-preview")
                     .build();
          }
@@ -266,10 +914,9 @@ public class JBangKernel extends JavaKernel {
     }
 
     public void addToClasspath(JBangInfo jbangInfo) {
-        jbangInfo.resolve(classpath);
+        KernelClasspath.Addition addition = addToClasspath(jbangInfo.resolvedDependencies);
+        jbangInfo.resolved(addition);
         display(getRenderer().render(jbangInfo));
-        List<String> resolvedDependencies = jbangInfo.resolvedDependencies;
-        addToClasspath(String.join(File.pathSeparator,resolvedDependencies));
     }
 
 }
@@ -2,58 +2,208 @@ package dev.jbang.jupyter;
 
 import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
 import org.dflib.jjava.jupyter.kernel.magic.MagicsArgs;
-import org.dflib.jjava.kernel.JavaKernel;
 
 import dev.jbang.jupyter.JBangHelper.JBangInfo;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
 /**
- * Builds a JBang script and adds the resolved dependencies to the classpath.
+ * Builds JBang scripts and adds their resolved dependencies to the classpath.
+ *
+ * Usage:
+ * %jbang scriptRef [scriptRef...]
+ * %jbang --which - Show which jbang executable is used and its version
+ *
+ * Local scripts are fingerprinted by their content and the content of their //SOURCES,
+ * recursively. When a script is unchanged since it was last built, its resolution is taken
+ * from the dependency cache and jbang is not run at all. Several scripts are built
+ * concurrently and added to the classpath at once.
  */
 public class JBangLineMagic implements LineMagic<Void, JBangKernel> {
 
+    static final Logger logger = Logger.getLogger(JBangLineMagic.class.getName());
+
+    static final int MAX_CONCURRENT_BUILDS = 4;
 
     public Void eval(JBangKernel kernel, List<String> args) throws IOException, InterruptedException {
         if (args.isEmpty()) {
             throw new IllegalArgumentException("Loading from JBang requires at least a path to a JBang script reference.");
         }
+        if (args.size() == 1 && args.get(0).equals("--which")) {
+            System.out.println(which());
+            return null;
+        }
 
         MagicsArgs schema = MagicsArgs.builder()
                 .required("scriptRef")
+                .varargs("moreScriptRefs")
                 .onlyKnownKeywords().onlyKnownFlags().build();
 
         Map<String, List<String>> vals = schema.parse(args);
-        String scriptRef = vals.get("scriptRef").get(0);
-        String jbangExecutable = JBangHelper.findJBangExecutable();
-            if (jbangExecutable == null) {
-                throw new RuntimeException("JBang executable not found in $JBANG_HOME, $PATH, or ~/.jbang/bin. Please install JBang.");
+        List<String> scriptRefs = new ArrayList<>(vals.get("scriptRef"));
+        scriptRefs.addAll(vals.getOrDefault("moreScriptRefs", List.of()));
+
+        try {
+            kernel.addToClasspath(merge(load(kernel, scriptRefs)));
+            return null;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static String which() throws IOException {
+        JBangHelper.JBangExecutable executable = JBangHelper.getJBangExecutable();
+        if (executable == null) {
+            return "jbang not found in $JBANG_HOME, $PATH or ~/.jbang/bin and no bundled distribution to bootstrap from";
+        }
+        String which = executable.path() + " (from " + executable.source() + ")\nVersion: " + JBangHelper.getJBangVersion();
+        if (JBangHelper.getResolver() instanceof InProcessJBangResolver) {
+            Path jar = InProcessJBangResolver.findJBangJar();
+            which += "\nIn-process: " + (jar != null ? jar : "jbang.jar not found, using the executable");
+        }
+        return which;
+    }
+
+    private List<JBangInfo> load(JBangKernel kernel, List<String> scriptRefs) {
+        if (scriptRefs.size() == 1 || !JBangHelper.getResolver().supportsConcurrentUse()) {
+            List<JBangInfo> infos = new ArrayList<>();
+            for (String scriptRef : scriptRefs) {
+                infos.add(load(kernel.getDependencyCache(), scriptRef));
             }
+            return infos;
+        }
 
-        ProcessBuilder pb = new ProcessBuilder(jbangExecutable, "build", scriptRef);
-        pb.redirectErrorStream(false);
-        Process process = pb.start();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(scriptRefs.size(), MAX_CONCURRENT_BUILDS),
+                r -> {
+                    Thread thread = new Thread(r, "jbang-build");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            List<CompletableFuture<JBangInfo>> futures = new ArrayList<>();
+            for (String scriptRef : scriptRefs) {
+                futures.add(CompletableFuture.supplyAsync(() -> load(kernel.getDependencyCache(), scriptRef), executor));
+            }
+            List<JBangInfo> infos = new ArrayList<>();
+            for (CompletableFuture<JBangInfo> future : futures) {
+                infos.add(future.join());
+            }
+            return infos;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new RuntimeException("Building failed with exit code " + exitCode);
+    /**
+     * Builds and resolves one script, unless it is unchanged since it was last built.
+     */
+    static JBangInfo load(DependencyCache cache, String scriptRef) {
+        try {
+            String fingerprint = fingerprint(scriptRef);
+            String key = null;
+            if (fingerprint != null) {
+                key = DependencyCache.key(List.of("%jbang " + Path.of(scriptRef).toAbsolutePath().normalize(), fingerprint));
+                JBangInfo cached = cache.get(key);
+                if (cached != null) {
+                    KernelMetrics.get().dependencyCacheHits.increment();
+                    logger.fine(scriptRef + " is up to date, not building it");
+                    return cached;
+                }
+            }
+            KernelMetrics.get().dependencyCacheMisses.increment();
+
+            JBangHelper.getResolver().build(scriptRef);
+            JBangInfo info = JBangHelper.getJBangResolvedDependencies(scriptRef, null, true);
+            if (key != null) {
+                cache.put(key, List.of("%jbang " + scriptRef), info);
+            }
+            return info;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
+    /**
+     * Hashes the script and, recursively, its //SOURCES. //DEPS and other directives are
+     * part of the content.
+     *
+     * @return the fingerprint, or null when the script is not a local file or its closure
+     *         can't be followed, e.g. with globs, remote sources or //FILES
+     */
+    static String fingerprint(String scriptRef) throws IOException {
+        Path script;
         try {
-            JBangInfo jbangInfo = JBangHelper.getJBangResolvedDependencies(scriptRef, null, true);
-            kernel.addToClasspath(jbangInfo);
+            script = Path.of(scriptRef).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!Files.isRegularFile(script)) {
             return null;
-            // let the kernel evaluate the body after the dependencies are resolved
-            // TODO: this is not right way as extensions can't give callback
-            //JavaKernel kernel = JJava.getKernproelInstance();
-            //kernel.eval(body);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
-    }
 
+        StringBuilder closure = new StringBuilder();
+        Set<Path> seen = new LinkedHashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.add(script);
+        while (!pending.isEmpty()) {
+            Path file = pending.poll();
+            if (!seen.add(file)) {
+                continue;
+            }
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            String content = new String(bytes, StandardCharsets.UTF_8);
+            if (content.contains("//FILES")) {
+                return null;
+            }
+            closure.append(file).append(' ').append(DependencyCache.sha256(bytes)).append('\n');
+            for (String source : Directives.scan(content).getSources()) {
+                if (source.contains("://") || source.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0)) {
+                    return null;
+                }
+                pending.add(file.resolveSibling(source).normalize());
+            }
+        }
+        return DependencyCache.sha256(closure.toString().getBytes(StandardCharsets.UTF_8));
+    }
 
+    /**
+     * Combines the resolutions of several scripts into one classpath addition, keeping order.
+     */
+    static JBangInfo merge(List<JBangInfo> infos) {
+        if (infos.size() == 1) {
+            return infos.get(0);
+        }
+        Set<String> resolved = new LinkedHashSet<>();
+        Set<String> dependencies = new LinkedHashSet<>();
+        for (JBangInfo info : infos) {
+            resolved.addAll(info.getResolvedDependencies());
+            dependencies.addAll(info.getDependencies());
+        }
+        return new JBangInfo(new ArrayList<>(resolved), new ArrayList<>(dependencies));
+    }
 }
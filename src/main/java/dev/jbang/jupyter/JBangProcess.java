@@ -0,0 +1,242 @@
+package dev.jbang.jupyter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a jbang process without ever blocking on its pipes.
+ *
+ * stdin is written and stderr is read on pump threads while the calling thread parses
+ * stdout as it arrives. stderr lines, e.g. download progress, are handed to the
+ * {@link ProgressListener} and the last ones are kept for error messages. Processes are
+ * killed when they exceed their timeout or when {@link #cancelAll()} is called on a
+ * kernel interrupt.
+ */
+final class JBangProcess {
+
+    static final Logger logger = Logger.getLogger(JBangProcess.class.getName());
+
+    static final int STDERR_TAIL_LINES = 40;
+
+    /**
+     * Called on the thread starting a process, to decide whether to show its progress.
+     */
+    @FunctionalInterface
+    interface ProgressListener {
+        /**
+         * @return where to report the progress of the process, or null to not report it
+         */
+        Progress start(Thread caller, String description);
+    }
+
+    interface Progress {
+        /**
+         * Called on a pump thread for each line jbang writes to stderr.
+         */
+        void line(String line);
+
+        void done(boolean success);
+    }
+
+    @FunctionalInterface
+    interface OutputParser<T> {
+        T parse(Reader stdout) throws IOException;
+    }
+
+    private static final Map<Process, Run> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param thread name of the thread that started the process
+     * @param cancelled set when the process was cancelled
+     */
+    private record Run(String thread, AtomicBoolean cancelled) {
+    }
+
+    private static final ExecutorService pumps = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "jbang-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // cancelled timeouts are removed right away instead of holding their process until they are due
+    private static final ScheduledThreadPoolExecutor watchdogs = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "jbang-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        watchdogs.setRemoveOnCancelPolicy(true);
+    }
+
+    private static volatile ProgressListener progressListener;
+
+    private JBangProcess() {
+    }
+
+    static void setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Kills all running jbang processes, e.g. when the kernel is interrupted.
+     */
+    static void cancelAll() {
+        running.forEach((process, run) -> {
+            run.cancelled().set(true);
+            kill(process);
+        });
+    }
+
+    /**
+     * Kills the jbang processes started by threads of the given name, e.g. a superseded prefetch.
+     */
+    static void cancel(String thread) {
+        running.forEach((process, run) -> {
+            if (run.thread().equals(thread)) {
+                run.cancelled().set(true);
+                kill(process);
+            }
+        });
+    }
+
+    /**
+     * @param stdin written to the process, or null to close its stdin right away
+     * @param parser reads stdout; whatever it leaves unread is discarded
+     */
+    static <T> T run(List<String> command, String stdin, Duration timeout, OutputParser<T> parser)
+            throws IOException {
+        String description = "jbang " + String.join(" ", command.subList(1, command.size()));
+        ProgressListener listener = progressListener;
+        Progress progress = listener != null ? listener.start(Thread.currentThread(), description) : null;
+
+        Process process = new ProcessBuilder(command).start();
+        KernelMetrics.get().jbangProcesses.increment();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        running.put(process, new Run(Thread.currentThread().getName(), cancelled));
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = watchdogs.schedule(() -> {
+            if (process.isAlive()) {
+                timedOut.set(true);
+                kill(process);
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        Deque<String> stderrTail = new ArrayDeque<>();
+        Future<?> stdinWriter = pumps.submit(() -> writeStdin(process, stdin));
+        Future<?> stderrPump = pumps.submit(() -> pumpStderr(process, stderrTail, progress));
+
+        boolean success = false;
+        try {
+            T result = null;
+            Exception parseFailure = null;
+            try (Reader stdout = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+                result = parser.parse(stdout);
+                stdout.transferTo(Writer.nullWriter());
+            } catch (IOException | RuntimeException e) {
+                parseFailure = e;
+            }
+
+            int exitCode = process.waitFor();
+            stderrPump.get();
+            stdinWriter.get();
+
+            if (cancelled.get()) {
+                throw new IOException(description + " was interrupted");
+            }
+            if (timedOut.get()) {
+                throw new IOException(description + " timed out after " + timeout.toSeconds() + "s");
+            }
+            if (exitCode != 0) {
+                throw new IOException(description + " failed with exit code " + exitCode + ":\n" + tail(stderrTail));
+            }
+            if (parseFailure != null) {
+                throw new IOException("Could not read the output of " + description, parseFailure);
+            }
+            success = true;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(description + " was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not talk to " + description, e.getCause());
+        } finally {
+            watchdog.cancel(false);
+            running.remove(process);
+            if (process.isAlive()) {
+                kill(process);
+            }
+            if (progress != null) {
+                progress.done(success);
+            }
+        }
+    }
+
+    private static void writeStdin(Process process, String stdin) {
+        try (OutputStream os = process.getOutputStream()) {
+            if (stdin != null) {
+                os.write(stdin.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // the process exited without reading everything, its exit code tells why
+            logger.log(Level.FINE, "Could not write to jbang", e);
+        }
+    }
+
+    private static void pumpStderr(Process process, Deque<String> tail, Progress progress) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                synchronized (tail) {
+                    if (tail.size() == STDERR_TAIL_LINES) {
+                        tail.removeFirst();
+                    }
+                    tail.addLast(line);
+                }
+                if (progress != null) {
+                    progress.line(line);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not read jbang's stderr", e);
+        }
+    }
+
+    private static String tail(Deque<String> tail) {
+        synchronized (tail) {
+            return String.join("\n", tail);
+        }
+    }
+
+    private static void kill(Process process) {
+        // the jbang launcher may have started java as a child
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,67 @@
+package dev.jbang.jupyter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.dflib.jjava.jupyter.kernel.BaseKernel;
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+
+/**
+ * Shows what a jbang process writes to stderr, e.g. downloads, as one output of the cell
+ * that is updated in place.
+ *
+ * Nothing is shown for processes that stay quiet, and updates are sent at most every
+ * {@link #UPDATE_INTERVAL_MILLIS} with the last {@link #LINES} lines.
+ */
+class JBangProgressDisplay implements JBangProcess.Progress {
+
+    static final int LINES = 5;
+    static final long UPDATE_INTERVAL_MILLIS = 250;
+
+    private final BaseKernel kernel;
+    private final String description;
+    private final String displayId = UUID.randomUUID().toString();
+    private final long start = System.nanoTime();
+    private final Deque<String> lines = new ArrayDeque<>();
+    private boolean shown;
+    private long lastUpdate;
+
+    JBangProgressDisplay(BaseKernel kernel, String description) {
+        this.kernel = kernel;
+        this.description = description;
+    }
+
+    @Override
+    public synchronized void line(String line) {
+        if (lines.size() == LINES) {
+            lines.removeFirst();
+        }
+        lines.addLast(line);
+        long now = System.nanoTime();
+        if (!shown || now - lastUpdate >= UPDATE_INTERVAL_MILLIS * 1_000_000) {
+            lastUpdate = now;
+            show(description + "\n" + String.join("\n", lines));
+        }
+    }
+
+    @Override
+    public synchronized void done(boolean success) {
+        if (shown) {
+            show(description + (success ? " done" : " failed") + " in "
+                    + String.format(Locale.ROOT, "%.1fs", (System.nanoTime() - start) / 1e9));
+        }
+    }
+
+    private void show(String text) {
+        DisplayData data = new DisplayData(text);
+        data.setDisplayId(displayId);
+        if (shown) {
+            kernel.updateDisplay(displayId, data);
+        } else {
+            kernel.display(data);
+            shown = true;
+        }
+    }
+}
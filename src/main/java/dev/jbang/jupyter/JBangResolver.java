@@ -0,0 +1,62 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Runs jbang to resolve dependencies and build scripts.
+ *
+ * Selected in {@link Main} with the JBANG_KERNEL_RESOLVER environment variable:
+ * <ul>
+ * <li>process (default) - forks the jbang executable for every request</li>
+ * <li>inprocess - loads jbang once into the kernel JVM, falling back to process when that fails</li>
+ * </ul>
+ */
+public interface JBangResolver {
+
+    /**
+     * Runs `jbang info tools` for the script reference.
+     *
+     * @param scriptRef script reference, or "-" to resolve the given body
+     * @param body script content when scriptRef is "-", otherwise null
+     * @param inclAppJar whether to add the built application jar to the resolved dependencies
+     */
+    JBangInfo info(String scriptRef, String body, boolean inclAppJar) throws IOException;
+
+    /**
+     * Runs `jbang build` for the script reference.
+     */
+    void build(String scriptRef) throws IOException;
+
+    /**
+     * Whether requests may run concurrently with cell execution, e.g. for prefetching.
+     */
+    default boolean supportsConcurrentUse() {
+        return true;
+    }
+
+    /**
+     * Stops running requests, e.g. when the kernel is interrupted.
+     */
+    default void cancel() {
+    }
+
+    static JBangResolver fromName(String name) {
+        return fromName(name, ProcessJBangResolver.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout after which jbang processes are killed
+     */
+    static JBangResolver fromName(String name, Duration timeout) {
+        if (name == null || name.isBlank() || name.equalsIgnoreCase("process")) {
+            return new ProcessJBangResolver(null, timeout);
+        }
+        if (name.equalsIgnoreCase("inprocess")) {
+            return new InProcessJBangResolver(new ProcessJBangResolver(null, timeout));
+        }
+        throw new IllegalArgumentException("Unknown jbang resolver '" + name + "', expected 'process' or 'inprocess'");
+    }
+}
@@ -0,0 +1,43 @@
+package dev.jbang.jupyter;
+
+import java.util.List;
+
+import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
+
+/**
+ * Shows or changes the JVM options of the kernel, which is also the JVM executing the cells.
+ *
+ * Usage:
+ * %jvm - Show the JVM, its options, heap and GCs
+ * %jvm <options> - Add options, e.g. -Xmx4g or --add-opens java.base/java.lang=ALL-UNNAMED
+ * %jvm reset - Drop the options added in this session
+ *
+ * Options other than -D relaunch the kernel JVM and replay the cells that succeeded so far,
+ * see {@link JvmSession}. The kernel applies %jvm lines before running their cell, so a cell
+ * that relaunches the JVM only runs in the new one.
+ */
+public class JvmMagic implements LineMagic<Void, JBangKernel> {
+
+    @Override
+    public Void eval(JBangKernel kernel, List<String> args) throws Exception {
+        JvmSession session = kernel.getJvmSession();
+        if (args.isEmpty()) {
+            System.out.println(session.describe());
+            return null;
+        }
+        if (args.size() == 1 && args.get(0).equals("reset")) {
+            if (session.reset()) {
+                kernel.relaunch();
+            } else {
+                System.out.println("No JVM options to reset");
+            }
+            return null;
+        }
+        if (session.apply(args)) {
+            kernel.relaunch();
+        } else {
+            System.out.println("Set " + String.join(" ", args));
+        }
+        return null;
+    }
+}
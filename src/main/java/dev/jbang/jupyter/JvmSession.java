@@ -0,0 +1,388 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.RuntimeMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+
+/**
+ * JVM options of the kernel and the cells to replay when it is relaunched with other ones.
+ *
+ * Snippets execute in the kernel JVM, so options like the heap size or the GC only take
+ * effect in a new JVM. When they change, the kernel closes its connection and the original
+ * process relaunches the kernel as a child JVM with the options, on the same connection
+ * file, and the child replays the cells that succeeded so far. The original process then
+ * only supervises: a child that needs other options exits with {@link #RESTART_EXIT_CODE}
+ * and is launched again. {@code -D} options are set right away and need no relaunch.
+ *
+ * Children are started with the JVM arguments of the original process, minus the ones the
+ * session overrides, e.g. its GC when the session selects another one, followed by the options
+ * of the session. Options are checked with exactly these arguments before the kernel goes away.
+ *
+ * Options and cells are kept in a JSON file named by {@value #SESSION_ENV} in the children.
+ */
+public class JvmSession {
+
+    static final Logger logger = Logger.getLogger(JvmSession.class.getName());
+
+    static final String SESSION_ENV = "JBANG_KERNEL_SESSION";
+    static final int RESTART_EXIT_CODE = 75;
+    static final long VALIDATE_TIMEOUT_SECONDS = 30;
+
+    // options whose value may be given as the next argument, e.g. --add-opens java.base/java.lang=ALL-UNNAMED
+    private static final Set<String> SEPARATE_VALUE = Set.of("--add-opens", "--add-exports", "--add-reads",
+            "--add-modules", "--enable-native-access", "--patch-module", "--limit-modules");
+    private static final Set<String> NOT_ALLOWED = Set.of("-cp", "-classpath", "--class-path", "-jar", "-m",
+            "--module");
+
+    private static final Gson gson = new Gson();
+
+    static class State {
+        List<String> options = new ArrayList<>();
+        List<String> cells = new ArrayList<>();
+        // JVM arguments of the original process, set when it relaunches the kernel
+        List<String> baseArguments;
+    }
+
+    private final Path file;
+    private final State state;
+    private volatile boolean restartRequested;
+    private volatile boolean replaying;
+
+    JvmSession(Path file, State state) {
+        this.file = file;
+        this.state = state;
+    }
+
+    /**
+     * @return the session of a relaunched kernel, or a new one in the original process
+     */
+    public static JvmSession fromEnvironment() throws IOException {
+        String session = System.getenv(SESSION_ENV);
+        if (session == null || session.isBlank()) {
+            return new JvmSession(null, new State());
+        }
+        Path file = Path.of(session);
+        State state;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            state = gson.fromJson(reader, State.class);
+        }
+        if (state == null) {
+            state = new State();
+        }
+        // parent died, e.g. killed by Jupyter, so there is no one to talk to anymore
+        ProcessHandle.current().parent().ifPresent(parent -> parent.onExit().thenRun(() -> Runtime.getRuntime().halt(1)));
+        return new JvmSession(file, state);
+    }
+
+    public List<String> getOptions() {
+        return Collections.unmodifiableList(state.options);
+    }
+
+    public List<String> getCells() {
+        return Collections.unmodifiableList(state.cells);
+    }
+
+    public boolean isRestartRequested() {
+        return restartRequested;
+    }
+
+    public boolean isReplaying() {
+        return replaying;
+    }
+
+    void setReplaying(boolean replaying) {
+        this.replaying = replaying;
+    }
+
+    /**
+     * Remembers a cell that succeeded, to replay it after a relaunch.
+     */
+    public synchronized void record(String cell) {
+        if (!replaying && cell != null && !cell.isBlank()) {
+            state.cells.add(cell);
+        }
+    }
+
+    /**
+     * Adds options, replacing earlier values of the same option. {@code -D} options are set
+     * right away; for the others the JVM has to be relaunched, which is then requested.
+     *
+     * While replaying, the options of the session are already in effect and nothing changes.
+     *
+     * @return true when a relaunch was requested
+     * @throws IllegalArgumentException when the options are not accepted by java
+     */
+    public synchronized boolean apply(List<String> arguments) {
+        if (replaying) {
+            return false;
+        }
+        List<String> options = normalize(arguments);
+        List<String> merged = new ArrayList<>(state.options);
+        for (String option : options) {
+            String key = key(option);
+            merged.removeIf(existing -> key(existing).equals(key));
+            merged.add(option);
+        }
+        boolean relaunch = !withoutProperties(merged).equals(withoutProperties(state.options));
+        if (relaunch) {
+            validate(jvmArguments(baseArguments(), merged));
+        }
+        for (String option : options) {
+            if (option.startsWith("-D")) {
+                int eq = option.indexOf('=');
+                System.setProperty(eq < 0 ? option.substring(2) : option.substring(2, eq),
+                        eq < 0 ? "" : option.substring(eq + 1));
+            }
+        }
+        state.options = merged;
+        if (relaunch) {
+            restartRequested = true;
+        }
+        return relaunch;
+    }
+
+    /**
+     * Drops the options of the session, requesting a relaunch if any of them needed one.
+     */
+    public synchronized boolean reset() {
+        if (replaying) {
+            return false;
+        }
+        boolean relaunch = !withoutProperties(state.options).isEmpty();
+        state.options = new ArrayList<>();
+        if (relaunch) {
+            restartRequested = true;
+        }
+        return relaunch;
+    }
+
+    static List<String> normalize(List<String> arguments) {
+        List<String> options = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i).trim();
+            if (argument.isEmpty()) {
+                continue;
+            }
+            if (!argument.startsWith("-") || NOT_ALLOWED.contains(argument)) {
+                throw new IllegalArgumentException("Not a JVM option that can be set for the kernel: " + argument);
+            }
+            if (SEPARATE_VALUE.contains(argument)) {
+                if (i + 1 >= arguments.size()) {
+                    throw new IllegalArgumentException(argument + " needs a value");
+                }
+                argument = argument + "=" + arguments.get(++i).trim();
+            }
+            options.add(argument);
+        }
+        return options;
+    }
+
+    /**
+     * @return what makes options override each other, e.g. -Xmx for -Xmx2g or -XX:MaxRAMPercentage
+     *         for -XX:MaxRAMPercentage=50
+     */
+    static String key(String option) {
+        if (option.startsWith("-D")) {
+            int eq = option.indexOf('=');
+            return eq < 0 ? option : option.substring(0, eq);
+        }
+        if (option.startsWith("-XX:")) {
+            String name = option.substring(4);
+            if (name.startsWith("+") || name.startsWith("-")) {
+                name = name.substring(1);
+            }
+            // only one GC can be selected
+            if (name.startsWith("Use") && name.endsWith("GC")) {
+                return "-XX:Use*GC";
+            }
+            int eq = name.indexOf('=');
+            return "-XX:" + (eq < 0 ? name : name.substring(0, eq));
+        }
+        for (String prefix : List.of("-Xmx", "-Xms", "-Xss", "-Xmn")) {
+            if (option.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        return option;
+    }
+
+    private static List<String> withoutProperties(List<String> options) {
+        return options.stream().filter(option -> !option.startsWith("-D")).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the JVM arguments of the original process
+     */
+    private List<String> baseArguments() {
+        return state.baseArguments != null ? state.baseArguments : inheritedArguments();
+    }
+
+    /**
+     * @return the JVM arguments of this process, without the debug agent whose port it keeps
+     */
+    static List<String> inheritedArguments() {
+        List<String> arguments = new ArrayList<>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-agentlib:jdwp") && !argument.startsWith("-Xrunjdwp")) {
+                arguments.add(argument);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * @return the base arguments without the ones the options override, followed by the options
+     */
+    static List<String> jvmArguments(List<String> baseArguments, List<String> options) {
+        Set<String> overridden = options.stream().map(JvmSession::key).collect(Collectors.toSet());
+        List<String> arguments = new ArrayList<>();
+        for (String argument : baseArguments) {
+            if (!overridden.contains(key(argument))) {
+                arguments.add(argument);
+            }
+        }
+        arguments.addAll(options);
+        return arguments;
+    }
+
+    /**
+     * Starts java with the arguments a relaunched kernel gets, to find mistakes before the
+     * kernel goes away.
+     */
+    private static void validate(List<String> arguments) {
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable());
+        command.addAll(arguments);
+        command.add("-version");
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!process.waitFor(VALIDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IllegalArgumentException("java did not start with " + String.join(" ", arguments));
+            }
+            if (process.exitValue() != 0) {
+                throw new IllegalArgumentException("java does not start with " + String.join(" ", arguments) + ":\n" + output.trim());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not start java to check " + String.join(" ", arguments), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String javaExecutable() {
+        return Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    /**
+     * Relaunches the kernel after its connection was closed.
+     *
+     * In a relaunched kernel this saves the session and returns {@link #RESTART_EXIT_CODE} for the
+     * supervising process to launch the next one. In the original process it launches children
+     * until one exits for good.
+     *
+     * @return exit code for the process
+     */
+    public int relaunch(String[] args) throws IOException, InterruptedException {
+        if (file != null) {
+            save(file);
+            return RESTART_EXIT_CODE;
+        }
+
+        Path sessionFile = Files.createTempFile("jbang-kernel-session", ".json");
+        try {
+            synchronized (this) {
+                state.baseArguments = inheritedArguments();
+            }
+            save(sessionFile);
+            while (true) {
+                List<String> command = childCommand(sessionFile, args);
+                logger.info("Relaunching kernel: " + command);
+                ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+                builder.environment().put(SESSION_ENV, sessionFile.toString());
+                Process child = builder.start();
+                Thread stopChild = new Thread(child::destroy, "jbang-stop-kernel");
+                Runtime.getRuntime().addShutdownHook(stopChild);
+                int exit = child.waitFor();
+                Runtime.getRuntime().removeShutdownHook(stopChild);
+                if (exit != RESTART_EXIT_CODE) {
+                    return exit;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(sessionFile);
+        }
+    }
+
+    private static List<String> childCommand(Path sessionFile, String[] args) throws IOException {
+        State saved;
+        try (Reader reader = Files.newBufferedReader(sessionFile, StandardCharsets.UTF_8)) {
+            saved = gson.fromJson(reader, State.class);
+        }
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable());
+        command.addAll(jvmArguments(inheritedArguments(), saved.options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(List.of(args));
+        return command;
+    }
+
+    private synchronized void save(Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), "jbang-kernel-session", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(state, writer);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the options, heap and GCs of the running kernel JVM
+     */
+    public String describe() {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        StringBuilder out = new StringBuilder();
+        out.append("JVM: ").append(runtime.getVmName()).append(' ').append(runtime.getVmVersion())
+                .append(" (pid ").append(ProcessHandle.current().pid()).append(")\n");
+        out.append("Started with: ").append(String.join(" ", runtime.getInputArguments())).append('\n');
+        out.append("Session options: ").append(state.options.isEmpty() ? "none" : String.join(" ", state.options))
+                .append('\n');
+        out.append("Heap: ").append(ProfileMagic.formatBytes(heap.getUsed())).append(" used, ")
+                .append(ProfileMagic.formatBytes(heap.getCommitted())).append(" committed, ")
+                .append(heap.getMax() < 0 ? "no" : ProfileMagic.formatBytes(heap.getMax())).append(" max\n");
+        out.append("GC: ").append(ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .map(GarbageCollectorMXBean::getName).collect(Collectors.joining(", "))).append('\n');
+        out.append("Cells to replay on relaunch: ").append(state.cells.size());
+        if (file != null) {
+            out.append("\nRelaunched by pid ").append(ProcessHandle.current().parent().map(p -> "" + p.pid()).orElse("?"))
+                    .append(", session in ").append(file);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "JvmSession{options=" + state.options + ", cells=" + state.cells.size() + "}";
+    }
+}
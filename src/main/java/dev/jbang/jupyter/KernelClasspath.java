@@ -0,0 +1,325 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classpath of the kernel, tracked by Maven artifact rather than only by path.
+ *
+ * Adding a jar of an artifact that is already on the classpath, in the same or another
+ * version or from another local repository, is collapsed according to the {@link ConflictPolicy}
+ * instead of loading both. Jars that aren't Maven artifacts are deduplicated by content hash.
+ */
+public class KernelClasspath {
+
+    static final Logger logger = Logger.getLogger(KernelClasspath.class.getName());
+
+    public enum ConflictPolicy {
+        /** keep the version loaded first */
+        FIRST_WINS,
+        /** prefer the newest version; as jars can't be unloaded this only applies within one addition */
+        NEWEST_WINS,
+        /** refuse to add a different version of a loaded artifact */
+        FAIL;
+
+        public static ConflictPolicy fromName(String name) {
+            if (name == null || name.isBlank()) {
+                return FIRST_WINS;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown classpath conflict policy '" + name
+                        + "', expected first-wins, newest-wins or fail");
+            }
+        }
+    }
+
+    /**
+     * groupId may be null when it can't be determined from the path or jar.
+     */
+    public record Artifact(String groupId, String artifactId, String version, String classifier) {
+        String key() {
+            return groupId + ":" + artifactId + (classifier != null ? ":" + classifier : "");
+        }
+
+        @Override
+        public String toString() {
+            return key() + ":" + version;
+        }
+    }
+
+    /**
+     * A jar that was not added because an equivalent one is already on the classpath.
+     */
+    public record Collapsed(String path, String keptPath, String reason) {
+    }
+
+    public record Addition(List<String> added, List<Collapsed> collapsed) {
+    }
+
+    private final ConflictPolicy policy;
+    private final Set<String> paths = new LinkedHashSet<>();
+    private final Map<String, Loaded> artifacts = new HashMap<>();
+    private final Map<String, String> pathsByHash = new HashMap<>();
+
+    private record Loaded(String path, Artifact artifact) {
+    }
+
+    public KernelClasspath(ConflictPolicy policy) {
+        this.policy = policy;
+    }
+
+    public ConflictPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean contains(String path) {
+        return paths.contains(path);
+    }
+
+    /**
+     * @return all paths on the classpath, in the order they were added
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(paths);
+    }
+
+    /**
+     * Records paths that are already loaded, e.g. the kernel's own classpath.
+     */
+    public synchronized void addLoaded(List<String> loaded) {
+        for (String path : loaded) {
+            if (path.isEmpty() || !paths.add(path)) {
+                continue;
+            }
+            Artifact artifact = artifactOf(path);
+            if (artifact != null && artifact.groupId() != null) {
+                artifacts.putIfAbsent(artifact.key(), new Loaded(path, artifact));
+            }
+        }
+    }
+
+    /**
+     * Records the given paths and returns those that still need to be added to the JShell classpath.
+     *
+     * @throws IllegalStateException when the policy is {@link ConflictPolicy#FAIL} and a conflict is found;
+     *             nothing is added in that case
+     */
+    public synchronized Addition add(List<String> candidates) {
+        // resolve conflicts within this addition first, that's where newest-wins can still choose
+        Map<String, String> chosen = new LinkedHashMap<>();
+        Map<String, Artifact> candidateArtifacts = new HashMap<>();
+        List<Collapsed> collapsed = new ArrayList<>();
+        for (String path : candidates) {
+            if (path.isEmpty() || paths.contains(path) || candidateArtifacts.containsKey(path)) {
+                continue;
+            }
+            Artifact artifact = artifactOf(path);
+            candidateArtifacts.put(path, artifact);
+            String key = artifact != null && artifact.groupId() != null ? artifact.key() : path;
+            String previous = chosen.get(key);
+            if (previous == null) {
+                chosen.put(key, path);
+                continue;
+            }
+            Artifact previousArtifact = candidateArtifacts.get(previous);
+            String kept = resolveConflict(previous, previousArtifact, path, artifact);
+            String dropped = kept.equals(path) ? previous : path;
+            chosen.put(key, kept);
+            collapsed.add(new Collapsed(dropped, kept, describe(candidateArtifacts.get(dropped), candidateArtifacts.get(kept))));
+        }
+
+        // then against what is already loaded
+        List<String> added = new ArrayList<>();
+        Map<String, Loaded> newArtifacts = new HashMap<>();
+        Map<String, String> newHashes = new HashMap<>();
+        for (String path : chosen.values()) {
+            Artifact artifact = candidateArtifacts.get(path);
+            if (artifact != null && artifact.groupId() != null) {
+                Loaded loaded = artifacts.get(artifact.key());
+                if (loaded != null) {
+                    if (!loaded.artifact().version().equals(artifact.version()) && policy == ConflictPolicy.FAIL) {
+                        throw new IllegalStateException("Classpath conflict: " + artifact + " requested but "
+                                + loaded.artifact() + " is already loaded from " + loaded.path());
+                    }
+                    collapsed.add(new Collapsed(path, loaded.path(), describe(artifact, loaded.artifact())));
+                    continue;
+                }
+                newArtifacts.put(artifact.key(), new Loaded(path, artifact));
+            } else {
+                String hash = hashOf(path);
+                String existing = hash != null ? pathsByHash.getOrDefault(hash, newHashes.get(hash)) : null;
+                if (existing != null) {
+                    collapsed.add(new Collapsed(path, existing, "same content"));
+                    continue;
+                }
+                if (hash != null) {
+                    newHashes.put(hash, path);
+                }
+            }
+            added.add(path);
+        }
+
+        paths.addAll(added);
+        artifacts.putAll(newArtifacts);
+        pathsByHash.putAll(newHashes);
+        for (Collapsed c : collapsed) {
+            logger.fine("Not adding " + c.path() + " (" + c.reason() + "), keeping " + c.keptPath());
+        }
+        return new Addition(added, collapsed);
+    }
+
+    private String resolveConflict(String previous, Artifact previousArtifact, String path, Artifact artifact) {
+        if (artifact == null || artifact.version().equals(previousArtifact.version())) {
+            return previous;
+        }
+        switch (policy) {
+            case NEWEST_WINS:
+                return compareVersions(artifact.version(), previousArtifact.version()) > 0 ? path : previous;
+            case FAIL:
+                throw new IllegalStateException("Classpath conflict: both " + previousArtifact + " and " + artifact
+                        + " requested");
+            default:
+                return previous;
+        }
+    }
+
+    private String describe(Artifact dropped, Artifact kept) {
+        if (dropped == null || kept == null) {
+            return "same artifact";
+        }
+        if (dropped.version().equals(kept.version())) {
+            return dropped + " already on the classpath from another location";
+        }
+        if (policy == ConflictPolicy.NEWEST_WINS && compareVersions(dropped.version(), kept.version()) > 0) {
+            return dropped + " can't replace already loaded " + kept.version() + ", restart the kernel to use it";
+        }
+        return dropped + " conflicts with " + kept.version();
+    }
+
+    /**
+     * Derives the artifact from the Maven repository layout
+     * {@code <repo>/group/path/artifactId/version/artifactId-version[-classifier].jar}.
+     * The group is taken from the path below a "repository" folder, or else from the jar's pom.properties.
+     *
+     * @return the artifact, or null if the path doesn't follow the layout
+     */
+    static Artifact artifactOf(String path) {
+        Path jar = Path.of(path);
+        Path versionDir = jar.getParent();
+        Path artifactDir = versionDir != null ? versionDir.getParent() : null;
+        if (artifactDir == null || artifactDir.getFileName() == null || !path.endsWith(".jar")) {
+            return null;
+        }
+        String version = versionDir.getFileName().toString();
+        String artifactId = artifactDir.getFileName().toString();
+        String fileName = jar.getFileName().toString();
+        String base = artifactId + "-" + version;
+        if (!fileName.startsWith(base)) {
+            return null;
+        }
+        String rest = fileName.substring(base.length(), fileName.length() - ".jar".length());
+        String classifier = rest.startsWith("-") ? rest.substring(1) : null;
+
+        String groupId = null;
+        List<String> groupPath = new ArrayList<>();
+        for (Path dir = artifactDir.getParent(); dir != null && dir.getFileName() != null; dir = dir.getParent()) {
+            if (dir.getFileName().toString().equals("repository")) {
+                Collections.reverse(groupPath);
+                groupId = String.join(".", groupPath);
+                break;
+            }
+            groupPath.add(dir.getFileName().toString());
+        }
+        if (groupId == null || groupId.isEmpty()) {
+            groupId = groupIdFromPomProperties(jar, artifactId);
+        }
+        return new Artifact(groupId, artifactId, version, classifier);
+    }
+
+    private static String groupIdFromPomProperties(Path jar, String artifactId) {
+        if (!Files.isRegularFile(jar)) {
+            return null;
+        }
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.startsWith("META-INF/maven/") && name.endsWith("/" + artifactId + "/pom.properties")) {
+                    Properties props = new Properties();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        props.load(in);
+                    }
+                    return props.getProperty("groupId");
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not read pom.properties of " + jar, e);
+        }
+        return null;
+    }
+
+    private static String hashOf(String path) {
+        Path file = Path.of(path);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return DependencyCache.sha256(file);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not hash " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compares versions segment by segment, numerically where both segments are numbers.
+     * A qualified version (e.g. 1.0-SNAPSHOT, 1.0-RC1) sorts before the plain release.
+     */
+    static int compareVersions(String a, String b) {
+        String[] as = a.split("[.\\-]");
+        String[] bs = b.split("[.\\-]");
+        for (int i = 0; i < Math.max(as.length, bs.length); i++) {
+            if (i >= as.length) {
+                return isNumber(bs[i]) ? -1 : 1;
+            }
+            if (i >= bs.length) {
+                return isNumber(as[i]) ? 1 : -1;
+            }
+            int cmp;
+            if (isNumber(as[i]) && isNumber(bs[i])) {
+                cmp = Long.compare(Long.parseLong(as[i]), Long.parseLong(bs[i]));
+            } else if (isNumber(as[i]) != isNumber(bs[i])) {
+                cmp = isNumber(as[i]) ? 1 : -1;
+            } else {
+                cmp = as[i].compareToIgnoreCase(bs[i]);
+            }
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isNumber(String segment) {
+        return !segment.isEmpty() && segment.length() < 19 && segment.chars().allMatch(Character::isDigit);
+    }
+}
@@ -0,0 +1,47 @@
+package dev.jbang.jupyter;
+
+import java.security.GeneralSecurityException;
+
+import org.dflib.jjava.jupyter.channels.JupyterConnection;
+import org.dflib.jjava.jupyter.kernel.KernelConnectionProperties;
+import org.dflib.jjava.jupyter.messages.MessageType;
+
+/**
+ * Connection to the frontend that runs an action once an execute request was answered.
+ *
+ * jjava sends the execute_reply and the idle status of a request as deferrals of its reply
+ * environment, which run last in first out after the handler returned. A deferral added
+ * before the handler runs therefore runs after both were sent.
+ */
+public class KernelConnection extends JupyterConnection {
+
+    private volatile Runnable afterExecute;
+
+    public KernelConnection(KernelConnectionProperties properties) throws GeneralSecurityException {
+        super(properties);
+    }
+
+    /**
+     * Sets what to run after each execute request was answered.
+     */
+    public void setAfterExecute(Runnable afterExecute) {
+        this.afterExecute = afterExecute;
+    }
+
+    @Override
+    public <T> void setHandler(MessageType<T> type, ShellHandler<T> handler) {
+        if (type != MessageType.EXECUTE_REQUEST) {
+            super.setHandler(type, handler);
+            return;
+        }
+        super.setHandler(type, (env, message) -> {
+            env.defer(() -> {
+                Runnable action = afterExecute;
+                if (action != null) {
+                    action.run();
+                }
+            });
+            handler.handle(env, message);
+        });
+    }
+}
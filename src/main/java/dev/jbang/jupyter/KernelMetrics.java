@@ -0,0 +1,194 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters and latency histograms of the kernel, served in the Prometheus text format.
+ *
+ * Recording only increments {@link LongAdder}s, so it is cheap and never blocks; the values
+ * are only summed up when scraped. Histograms have fixed buckets from 1ms to 60s.
+ *
+ * Snippets execute in the kernel JVM, so the heap reported is the heap of the code
+ * executed by cells too.
+ */
+public class KernelMetrics {
+
+    static final Logger logger = Logger.getLogger(KernelMetrics.class.getName());
+
+    private static final KernelMetrics INSTANCE = new KernelMetrics();
+
+    public static KernelMetrics get() {
+        return INSTANCE;
+    }
+
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+    private final Map<String, String> help = new ConcurrentHashMap<>();
+
+    public final Histogram evalSeconds = histogram("jbang_kernel_eval_seconds", "Time to evaluate and render a cell");
+    public final LongAdder evalErrors = counter("jbang_kernel_eval_errors_total", "Cells that failed");
+    public final Histogram resolveSeconds = histogram("jbang_kernel_resolve_seconds",
+            "Time to resolve the new dependencies of a cell");
+    public final LongAdder jbangProcesses = counter("jbang_kernel_jbang_processes_total", "jbang processes started");
+    public final LongAdder jbangInProcess = counter("jbang_kernel_jbang_inprocess_total",
+            "jbang commands run inside the kernel JVM");
+    public final LongAdder dependencyCacheHits = counter("jbang_kernel_dependency_cache_hits_total",
+            "Resolutions answered from the dependency cache");
+    public final LongAdder dependencyCacheMisses = counter("jbang_kernel_dependency_cache_misses_total",
+            "Resolutions that had to run jbang");
+    public final LongAdder dependencyLockHits = counter("jbang_kernel_dependency_lock_hits_total",
+            "Resolutions answered from the lock file of the notebook");
+    public final Histogram completionSeconds = histogram("jbang_kernel_completion_seconds",
+            "Time to answer a completion request");
+    public final LongAdder completionCacheHits = counter("jbang_kernel_completion_cache_hits_total",
+            "Completions answered from the completion cache");
+    public final LongAdder completionCacheMisses = counter("jbang_kernel_completion_cache_misses_total",
+            "Completions computed by JShell");
+    public final LongAdder displayChars = counter("jbang_kernel_display_chars_total",
+            "Characters of display data sent to the frontend");
+
+    private KernelMetrics() {
+        gauge("jbang_kernel_heap_used_bytes", "Used heap of the kernel JVM, which executes the cells",
+                () -> heap().getUsed());
+        gauge("jbang_kernel_heap_committed_bytes", "Committed heap of the kernel JVM", () -> heap().getCommitted());
+        gauge("jbang_kernel_heap_max_bytes", "Maximum heap of the kernel JVM", () -> heap().getMax());
+    }
+
+    private static MemoryUsage heap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    private LongAdder counter(String name, String description) {
+        LongAdder counter = new LongAdder();
+        register(name, description, counter);
+        return counter;
+    }
+
+    private Histogram histogram(String name, String description) {
+        Histogram histogram = new Histogram();
+        register(name, description, histogram);
+        return histogram;
+    }
+
+    /**
+     * Registers a value that is read when scraped, e.g. the classpath size.
+     */
+    public void gauge(String name, String description, LongSupplier value) {
+        register(name, description, value);
+    }
+
+    private void register(String name, String description, Object metric) {
+        metrics.put(name, metric);
+        help.put(name, description);
+    }
+
+    /**
+     * Latency histogram with fixed buckets.
+     */
+    public static class Histogram {
+        static final double[] BOUNDS_SECONDS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * 1_000_000_000L);
+            }
+        }
+
+        // the last bucket is +Inf
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        metrics.keySet().stream().sorted().forEach(name -> {
+            Object metric = metrics.get(name);
+            out.append("# HELP ").append(name).append(' ').append(help.get(name)).append('\n');
+            if (metric instanceof LongAdder) {
+                out.append("# TYPE ").append(name).append(" counter\n");
+                out.append(name).append(' ').append(((LongAdder) metric).sum()).append('\n');
+            } else if (metric instanceof LongSupplier) {
+                out.append("# TYPE ").append(name).append(" gauge\n");
+                out.append(name).append(' ').append(((LongSupplier) metric).getAsLong()).append('\n');
+            } else {
+                Histogram histogram = (Histogram) metric;
+                out.append("# TYPE ").append(name).append(" histogram\n");
+                long cumulative = 0;
+                for (int i = 0; i < histogram.buckets.length; i++) {
+                    cumulative += histogram.buckets[i].sum();
+                    String bound = i < Histogram.BOUNDS_SECONDS.length
+                            ? String.format(Locale.ROOT, "%s", Histogram.BOUNDS_SECONDS[i])
+                            : "+Inf";
+                    out.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+                }
+                out.append(name).append("_sum ")
+                        .append(String.format(Locale.ROOT, "%.9f", histogram.sumNanos.sum() / 1e9)).append('\n');
+                out.append(name).append("_count ").append(cumulative).append('\n');
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * Serves the metrics on http://127.0.0.1:port/metrics.
+     *
+     * @param port port to listen on, 0 to pick a free one
+     */
+    public HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "jbang-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        logger.info("Serving metrics on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/metrics");
+        return server;
+    }
+}
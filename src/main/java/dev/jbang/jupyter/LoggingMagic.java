@@ -4,8 +4,8 @@ import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
 import org.dflib.jjava.kernel.JavaKernel;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,13 +21,24 @@ import java.util.logging.SimpleFormatter;
  * %log off - Pause logging (but keep file open)
  * %log state - Show current logging status
  * %log level <LEVEL> - Set logging level (SEVERE, WARNING, INFO, CONFIG, FINE, FINER, FINEST)
+ * %log policy drop|block - Drop records or wait when the log writer can't keep up
+ * %log rotate <size>[k|m] [files] - Rotate the log file at the given size (default: 10m, 5 files)
+ * %log trace on [filename] - Write a JSON line with timings per executed cell (default: <kernelname>-trace.jsonl)
+ * %log trace off - Stop tracing
+ *
+ * Records are written by a background thread (see {@link AsyncLogHandler}) so logging
+ * doesn't slow down cell execution.
  */
 public class LoggingMagic implements LineMagic<Void, JavaKernel> {
 
     Logger log = Logger.getLogger(LoggingMagic.class.getName());
 
     private static final Logger logger = Logger.getLogger(LoggingMagic.class.getName());
-    private static FileHandler fileHandler;
+    private static AsyncLogHandler fileHandler;
+    private static AsyncLogHandler.OverflowPolicy overflowPolicy = AsyncLogHandler.OverflowPolicy.DROP;
+    private static long rotateBytes = 10 * 1024 * 1024;
+    private static int rotateFiles = 5;
+    private static boolean shutdownHookAdded = false;
     private static boolean loggingEnabled = false;
     private static boolean loggingPaused = false;
     private static Level currentLevel = Level.INFO;
@@ -67,12 +78,52 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
                 }
                 System.out.println(setLoggingLevel(args.get(1)));
                 return null;
+            case "policy":
+                if (args.size() < 2) {
+                    System.out.println("Error: Please specify a policy (drop, block)");
+                    return null;
+                }
+                System.out.println(setOverflowPolicy(args.get(1)));
+                return null;
+            case "rotate":
+                if (args.size() < 2) {
+                    System.out.println("Error: Please specify a size, e.g. 10m");
+                    return null;
+                }
+                System.out.println(setRotation(args.get(1), args.size() > 2 ? args.get(2) : null));
+                return null;
+            case "trace":
+                System.out.println(setTracing(kernel, args.subList(1, args.size())));
+                return null;
             default:
                 System.out.println(getUsage());
                 return null;
         }
     }
 
+    private String setTracing(JavaKernel kernel, List<String> args) throws IOException {
+        if (!(kernel instanceof JBangKernel)) {
+            return "Error: Tracing is only supported by the JBang kernel";
+        }
+        ExecutionTracer tracer = ((JBangKernel) kernel).getTracer();
+        String command = args.isEmpty() ? "" : args.get(0).toLowerCase();
+        switch (command) {
+            case "on":
+                String filename = args.size() > 1 ? args.get(1) : kernel.getName().toLowerCase() + "-trace.jsonl";
+                tracer.start(Path.of(filename));
+                return "Tracing cells to: " + filename;
+            case "off":
+                if (!tracer.isEnabled()) {
+                    return "Tracing is not active";
+                }
+                Path file = tracer.getFile();
+                tracer.stop();
+                return "Tracing stopped. Trace file was: " + file;
+            default:
+                return "Error: Please specify on [filename] or off";
+        }
+    }
+
 
     private String setLoggingLevel(String levelName) {
         try {
@@ -91,6 +142,41 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
         }
     }
 
+    private String setOverflowPolicy(String policyName) {
+        try {
+            overflowPolicy = AsyncLogHandler.OverflowPolicy.valueOf(policyName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid policy '" + policyName + "'. Valid policies: drop, block";
+        }
+        if (fileHandler != null) {
+            fileHandler.setPolicy(overflowPolicy);
+        }
+        return "Overflow policy set to: " + overflowPolicy.name().toLowerCase();
+    }
+
+    private String setRotation(String size, String files) {
+        try {
+            String number = size.toLowerCase();
+            long unit = 1;
+            if (number.endsWith("k")) {
+                unit = 1024;
+            } else if (number.endsWith("m")) {
+                unit = 1024 * 1024;
+            }
+            if (unit > 1) {
+                number = number.substring(0, number.length() - 1);
+            }
+            rotateBytes = Long.parseLong(number) * unit;
+            if (files != null) {
+                rotateFiles = Integer.parseInt(files);
+            }
+        } catch (NumberFormatException e) {
+            return "Error: Invalid rotation '" + size + (files != null ? " " + files : "") + "', e.g. 10m 5";
+        }
+        return "Log file rotates at " + rotateBytes + " bytes keeping " + rotateFiles + " files"
+                + (fileHandler != null ? ", from the next %log start" : "");
+    }
+
     private String getLoggingStatus(JavaKernel kernel) {
         StringBuilder status = new StringBuilder();
         status.append("Logging Status:\n");
@@ -99,9 +185,18 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
         if (loggingEnabled) {
             status.append("  Paused: ").append(loggingPaused ? "Yes" : "No").append("\n");
             status.append("  Log file: ").append(currentLogFile != null ? currentLogFile : getLogFileName(kernel)).append("\n");
+            if (fileHandler != null) {
+                status.append("  Writer: ").append(fileHandler.getStatistics()).append("\n");
+            }
+        } else {
+            status.append("  Overflow policy: ").append(overflowPolicy.name().toLowerCase()).append("\n");
         }
         
         status.append("  Level: ").append(currentLevel);
+        if (kernel instanceof JBangKernel) {
+            ExecutionTracer tracer = ((JBangKernel) kernel).getTracer();
+            status.append("\n  Trace: ").append(tracer.isEnabled() ? tracer.getFile() + ", " + tracer.getStatistics() : "off");
+        }
         
         return status.toString();
     }
@@ -118,9 +213,20 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
 
         try {
             currentLogFile = filename;
-            fileHandler = new FileHandler(filename, true); // append mode
+            fileHandler = new AsyncLogHandler(Path.of(filename), rotateBytes, rotateFiles,
+                    AsyncLogHandler.DEFAULT_CAPACITY, overflowPolicy);
             fileHandler.setFormatter(new SimpleFormatter());
             fileHandler.setLevel(currentLevel);
+            if (!shutdownHookAdded) {
+                // write out what is still queued when the kernel shuts down
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    AsyncLogHandler handler = fileHandler;
+                    if (handler != null) {
+                        handler.close();
+                    }
+                }, "jbang-log-shutdown"));
+                shutdownHookAdded = true;
+            }
 
             // Get root logger and configure it
             Logger rootLogger = Logger.getLogger("");
@@ -210,6 +316,10 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
                "  off              - Pause logging (but keep file open)\n" +
                "  state            - Show current logging status\n" +
                "  level <LEVEL>    - Set logging level (SEVERE, WARNING, INFO, CONFIG, FINE, FINER, FINEST)\n" +
+               "  policy drop|block - Drop records or wait when the log writer can't keep up (default: drop)\n" +
+               "  rotate <size> [files] - Rotate the log file at size, e.g. 10m, keeping files old logs (default: 10m 5)\n" +
+               "  trace on [filename] - Write a JSON line with timings per cell (default: <kernelname>-trace.jsonl)\n" +
+               "  trace off        - Stop tracing\n" +
                "\nExamples:\n" +
                "  %log start                   - Start logging to <kernelname>.log\n" +
                "  %log start myapp.log         - Start logging to myapp.log\n" +
@@ -217,6 +327,7 @@ public class LoggingMagic implements LineMagic<Void, JavaKernel> {
                "  %log on                      - Resume logging\n" +
                "  %log state                   - Check status\n" +
                "  %log level WARNING           - Set logging level\n" +
+               "  %log policy block            - Never drop log records\n" +
                "  %log stop                    - Stop and close log file";
     }
 
@@ -5,16 +5,17 @@ import org.dflib.jjava.jupyter.channels.JupyterSocket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 
-import org.dflib.jjava.jupyter.channels.JupyterConnection;
 import org.dflib.jjava.jupyter.kernel.KernelConnectionProperties;
-import org.dflib.jjava.kernel.JavaKernel;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 import java.util.logging.Level;
 
+import com.sun.net.httpserver.HttpServer;
+
 
 public class Main {
 
@@ -34,13 +35,19 @@ public class Main {
         JupyterSocket.JUPYTER_LOGGER.setLevel(Level.WARNING);
 
         KernelConnectionProperties connProps = KernelConnectionProperties.parse(Files.readString(connectionFile));
-        JupyterConnection connection = new JupyterConnection(connProps);
+        KernelConnection connection = new KernelConnection(connProps);
 
         //MavenDependencyResolver mavenResolver = new MavenDependencyResolver();
 
         Properties pomProps = loadPomProps();
 
-        JavaKernel kernel = JBangKernel.jbangBuilder()
+        JBangHelper.useResolver(JBangResolver.fromName(System.getenv("JBANG_KERNEL_RESOLVER"),
+                Duration.ofSeconds(intEnv("JBANG_KERNEL_JBANG_TIMEOUT",
+                        (int) ProcessJBangResolver.DEFAULT_TIMEOUT.toSeconds()))));
+
+        JvmSession jvmSession = JvmSession.fromEnvironment();
+
+        JBangKernel kernel = JBangKernel.jbangBuilder()
                 .name("JBang")
                 .version((String) pomProps.getOrDefault("version", ""))
 
@@ -49,6 +56,12 @@ public class Main {
                 //.compilerOpts(Env.compilerOpts())
                 //.extraClasspath(Env.extraClasspath())
                 .timeout(System.getenv("JBANG_KERNEL_TIMEOUT"))
+                .conflictPolicy(KernelClasspath.ConflictPolicy.fromName(System.getenv("JBANG_KERNEL_CONFLICT_POLICY")))
+                .memoizedRenders(intEnv("JBANG_KERNEL_RENDER_CACHE", 0))
+                .streamingLimits(new StreamingDisplay.Limits(
+                        intEnv("JBANG_KERNEL_STREAM_THRESHOLD", StreamingDisplay.Limits.DEFAULT.thresholdChars()),
+                        intEnv("JBANG_KERNEL_STREAM_MAX", StreamingDisplay.Limits.DEFAULT.maxChars())))
+                .jvmSession(jvmSession)
 
                .lineMagic("load", new org.dflib.jjava.kernel.magics.LoadCodeMagic("", ".jsh", ".jshell", ".java", ".jjava"))
 
@@ -66,17 +79,51 @@ public class Main {
                 .lineMagic("jbang", new JBangLineMagic())
                 .lineMagic("help", new HelpMagic())
                 .lineMagic("log", new LoggingMagic())
+                .lineMagic("import", new ImportMagic())
+                .lineMagic("timeit", new TimeitMagic())
+                .cellMagic("timeit", new TimeitMagic())
+                .cellMagic("profile", new ProfileMagic())
+                .lineMagic("jvm", new JvmMagic())
+                .lineMagic("deps", new DepsMagic())
                 .build();
 
         kernel.onStartup();
+        kernel.replay();
 
         //TODO: should we honor IJAVA/JJAVA classpaths? probably but for now users can adjust deps manually
         //kernel.addToClasspath(System.getProperty("java.class.path"));
 
         kernel.becomeHandlerForConnection(connection);
 
+        // opt-in metrics endpoint on localhost, 0 picks a free port
+        String metricsPort = System.getenv("JBANG_KERNEL_METRICS_PORT");
+        HttpServer metricsServer = metricsPort != null && !metricsPort.isBlank()
+                ? KernelMetrics.get().serve(intEnv("JBANG_KERNEL_METRICS_PORT", 0))
+                : null;
+
         connection.connect();
         connection.waitUntilClose();
+
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+        }
+
+        if (jvmSession.isRestartRequested()) {
+            kernel.onShutdown(true);
+            System.exit(jvmSession.relaunch(args));
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, got '" + value + "'");
+        }
     }
 
     private static Properties loadPomProps() {
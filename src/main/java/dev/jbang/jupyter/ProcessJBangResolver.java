@@ -0,0 +1,95 @@
+package dev.jbang.jupyter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import dev.jbang.jupyter.JBangHelper.JBangInfo;
+
+/**
+ * Resolves by forking the jbang executable, see {@link JBangProcess} for how it is run.
+ */
+public class ProcessJBangResolver implements JBangResolver {
+
+    final static Logger logger = Logger.getLogger(ProcessJBangResolver.class.getName());
+
+    static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(10);
+
+    private final String executable;
+    private final Duration timeout;
+
+    public ProcessJBangResolver() {
+        this(null);
+    }
+
+    /**
+     * @param executable jbang executable to run, or null to look it up with {@link JBangHelper#findJBangExecutable()}
+     */
+    public ProcessJBangResolver(String executable) {
+        this(executable, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout after which a jbang process is killed
+     */
+    public ProcessJBangResolver(String executable, Duration timeout) {
+        this.executable = executable;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public JBangInfo info(String scriptRef, String body, boolean inclAppJar) throws IOException {
+        try {
+            return run(List.of("info", "tools", scriptRef), body,
+                    stdout -> JBangHelper.readJBangInfo(stdout, inclAppJar));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void build(String scriptRef) throws IOException {
+        run(List.of("build", scriptRef), null, stdout -> null);
+    }
+
+    /**
+     * Runs jbang, looking for it again and retrying once when the executable found before
+     * is gone or was replaced, e.g. by an upgrade.
+     */
+    private <T> T run(List<String> args, String stdin, JBangProcess.OutputParser<T> parser) throws IOException {
+        try {
+            return JBangProcess.run(command(args), stdin, timeout, parser);
+        } catch (IOException e) {
+            if (executable != null || !JBangHelper.invalidateJBangExecutable()) {
+                throw e;
+            }
+            logger.fine("jbang executable changed, looking for it again");
+            return JBangProcess.run(command(args), stdin, timeout, parser);
+        }
+    }
+
+    private List<String> command(List<String> args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(jbangExecutable());
+        command.addAll(args);
+        return command;
+    }
+
+    @Override
+    public void cancel() {
+        JBangProcess.cancelAll();
+    }
+
+    private String jbangExecutable() throws IOException {
+        if (executable != null) {
+            return executable;
+        }
+        String jbangExecutable = JBangHelper.findJBangExecutable();
+        if (jbangExecutable == null) {
+            throw new RuntimeException("JBang executable not found in $JBANG_HOME, $PATH, or ~/.jbang/bin. Please install JBang.");
+        }
+        return jbangExecutable;
+    }
+}
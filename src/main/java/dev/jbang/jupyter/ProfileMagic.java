@@ -0,0 +1,229 @@
+package dev.jbang.jupyter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+import org.dflib.jjava.jupyter.kernel.magic.CellMagic;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Profiles a cell with JDK Flight Recorder.
+ *
+ * Snippets execute in the kernel JVM, so the recording is started right here for the duration
+ * of the cell and then read back to summarize hot methods, allocations, GC pauses and
+ * lock contention. Only events of the threads that ran code of the cell are summarized, i.e.
+ * threads with a frame of a JShell snippet class ({@value #SNIPPET_PACKAGE}*) on a recorded
+ * stack, such as the thread executing the cell and pool threads running its lambdas. Kernel,
+ * jjava and ZMQ threads, and the thread waiting for the cell's result, are left out. GC
+ * events are JVM-wide.
+ *
+ * Usage:
+ * %%profile [-i sample millis] [-n top entries]
+ */
+public class ProfileMagic implements CellMagic<Object, JBangKernel> {
+
+    static final int DEFAULT_SAMPLE_MILLIS = 10;
+    static final int DEFAULT_TOP = 10;
+    static final Duration CONTENTION_THRESHOLD = Duration.ofMillis(1);
+
+    /** package of the classes JShell wraps snippets in */
+    static final String SNIPPET_PACKAGE = "REPL.";
+
+    @Override
+    public Object eval(JBangKernel kernel, List<String> args, String body) throws Exception {
+        int sampleMillis = DEFAULT_SAMPLE_MILLIS;
+        int top = DEFAULT_TOP;
+        for (int i = 0; i + 1 < args.size(); i += 2) {
+            switch (args.get(i)) {
+                case "-i":
+                    sampleMillis = Math.max(1, Integer.parseInt(args.get(i + 1)));
+                    break;
+                case "-n":
+                    top = Math.max(1, Integer.parseInt(args.get(i + 1)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Usage: %%profile [-i sample millis] [-n top entries]");
+            }
+        }
+
+        Path file = Files.createTempFile("jbang-profile", ".jfr");
+        Object result;
+        long start;
+        long elapsed;
+        try (Recording recording = new Recording()) {
+            recording.setName("jbang-profile");
+            recording.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(sampleMillis)).withStackTrace();
+            recording.enable("jdk.ObjectAllocationSample").withStackTrace();
+            recording.enable("jdk.GarbageCollection");
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(CONTENTION_THRESHOLD).withStackTrace();
+            recording.enable("jdk.ThreadPark").withThreshold(CONTENTION_THRESHOLD).withStackTrace();
+            recording.start();
+            start = System.nanoTime();
+            try {
+                result = kernel.evalRaw(body);
+            } finally {
+                elapsed = System.nanoTime() - start;
+                recording.stop();
+                recording.dump(file);
+            }
+            kernel.display(summarize(RecordingFile.readAllEvents(file), elapsed, top));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return result;
+    }
+
+    static DisplayData summarize(List<RecordedEvent> events, long elapsedNanos, int top) {
+        Map<String, Long> samples = new HashMap<>();
+        Map<String, Long> allocations = new HashMap<>();
+        Map<String, Long> contention = new HashMap<>();
+        int gcCount = 0;
+        long gcPause = 0;
+        long gcMaxPause = 0;
+        long sampleCount = 0;
+        long allocated = 0;
+
+        Set<Long> cellThreads = new HashSet<>();
+        for (RecordedEvent event : events) {
+            if (event.getThread() != null && runsSnippet(event.getStackTrace())) {
+                cellThreads.add(event.getThread().getJavaThreadId());
+            }
+        }
+
+        for (RecordedEvent event : events) {
+            String type = event.getEventType().getName();
+            if (type.equals("jdk.GarbageCollection")) {
+                long pause = event.getDuration("sumOfPauses").toNanos();
+                gcCount++;
+                gcPause += pause;
+                gcMaxPause = Math.max(gcMaxPause, pause);
+                continue;
+            }
+            if (event.getThread() == null || !cellThreads.contains(event.getThread().getJavaThreadId())) {
+                continue;
+            }
+            switch (type) {
+                case "jdk.ExecutionSample":
+                    samples.merge(topFrame(event.getStackTrace()), 1L, Long::sum);
+                    sampleCount++;
+                    break;
+                case "jdk.ObjectAllocationSample":
+                    long weight = event.getLong("weight");
+                    String objectClass = event.getClass("objectClass").getName();
+                    allocations.merge(objectClass + " in " + topFrame(event.getStackTrace()), weight, Long::sum);
+                    allocated += weight;
+                    break;
+                case "jdk.JavaMonitorEnter":
+                    String monitor = event.getClass("monitorClass") != null ? event.getClass("monitorClass").getName() : "?";
+                    contention.merge("monitor " + monitor + " in " + topFrame(event.getStackTrace()),
+                            event.getDuration().toNanos(), Long::sum);
+                    break;
+                case "jdk.ThreadPark":
+                    String parked = event.getClass("parkedClass") != null ? event.getClass("parkedClass").getName() : "?";
+                    contention.merge("park on " + parked + " in " + topFrame(event.getStackTrace()),
+                            event.getDuration().toNanos(), Long::sum);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Report report = new Report();
+        report.line("Wall time " + TimeitMagic.format(elapsedNanos) + ", " + sampleCount + " execution samples, "
+                + formatBytes(allocated) + " sampled allocations, " + gcCount + " GCs pausing "
+                + TimeitMagic.format(gcPause) + " (max " + TimeitMagic.format(gcMaxPause) + ")");
+        long totalSamples = sampleCount;
+        report.table("Hot methods", "samples", samples, top,
+                count -> count + " (" + String.format(Locale.ROOT, "%.1f%%", 100.0 * count / Math.max(1, totalSamples)) + ")");
+        report.table("Allocation hotspots", "bytes", allocations, top, ProfileMagic::formatBytes);
+        report.table("Lock contention", "time blocked", contention, top, TimeitMagic::format);
+        return report.toDisplayData();
+    }
+
+    private static boolean runsSnippet(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return false;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (frame.getMethod() != null && frame.getMethod().getType().getName().startsWith(SNIPPET_PACKAGE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "unknown";
+        }
+        RecordedFrame frame = stackTrace.getFrames().get(0);
+        String name = frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+        return frame.getLineNumber() > 0 ? name + ":" + frame.getLineNumber() : name;
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024));
+        }
+        return String.format(Locale.ROOT, "%.1f GiB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /**
+     * Builds the summary as text and HTML at the same time.
+     */
+    static class Report {
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder html = new StringBuilder("<div>");
+
+        void line(String line) {
+            text.append(line).append('\n');
+            html.append("<p>").append(JBangInfoRenderer.escape(line)).append("</p>");
+        }
+
+        void table(String title, String column, Map<String, Long> values, int top, Function<Long, String> format) {
+            if (values.isEmpty()) {
+                return;
+            }
+            List<Map.Entry<String, Long>> entries = values.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(top)
+                    .collect(Collectors.toList());
+            text.append('\n').append(title).append('\n');
+            html.append("<table><caption style='text-align:left'><strong>").append(title)
+                    .append("</strong></caption><tr><th style='text-align:left'></th><th style='text-align:right'>")
+                    .append(column).append("</th></tr>");
+            for (Map.Entry<String, Long> entry : entries) {
+                String value = format.apply(entry.getValue());
+                text.append(String.format("  %-16s %s%n", value, entry.getKey()));
+                html.append("<tr><td style='text-align:left'><code>").append(JBangInfoRenderer.escape(entry.getKey()))
+                        .append("</code></td><td style='text-align:right'>").append(value).append("</td></tr>");
+            }
+            html.append("</table>");
+        }
+
+        DisplayData toDisplayData() {
+            DisplayData data = new DisplayData(text.toString());
+            data.putHTML(html.append("</div>").toString());
+            return data;
+        }
+    }
+}
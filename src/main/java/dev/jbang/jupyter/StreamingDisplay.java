@@ -0,0 +1,220 @@
+package dev.jbang.jupyter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Displays very large strings, collections and maps as text in chunks instead of a single message.
+ *
+ * The text is written to stdout in chunks of at most {@link #CHUNK_CHARS}, each its own stream
+ * message, which the frontend appends to one output. No message is larger than a chunk, except
+ * by the one character of a surrogate pair that would otherwise be split, and every character
+ * is sent once. Only the text of the elements shown is built, never the full
+ * {@code toString()} of the value, and it is cut off at {@link Limits#maxChars()}.
+ *
+ * iopub is a PUB socket that drops rather than blocks when the frontend can't keep up,
+ * so chunks are paced by a minimum interval instead.
+ */
+public class StreamingDisplay {
+
+    static final Logger logger = Logger.getLogger(StreamingDisplay.class.getName());
+
+    /** characters sent per message */
+    static final int CHUNK_CHARS = 64 * 1024;
+
+    /** collections and maps with more elements are streamed */
+    static final int THRESHOLD_ELEMENTS = 10_000;
+
+    static final long CHUNK_INTERVAL_MILLIS = 10;
+
+    /**
+     * @param thresholdChars strings longer than this are streamed, 0 disables streaming
+     * @param maxChars the most characters shown for one value
+     */
+    public record Limits(int thresholdChars, int maxChars) {
+
+        public static final Limits DEFAULT = new Limits(256 * 1024, 4 * 1024 * 1024);
+
+        public boolean enabled() {
+            return thresholdChars > 0;
+        }
+    }
+
+    private final Limits limits;
+
+    public StreamingDisplay(Limits limits) {
+        this.limits = limits;
+    }
+
+    public boolean shouldStream(Object value) {
+        if (!limits.enabled()) {
+            return false;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > limits.thresholdChars();
+        }
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).size() > THRESHOLD_ELEMENTS;
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).size() > THRESHOLD_ELEMENTS;
+        }
+        if (value instanceof Object[]) {
+            return ((Object[]) value).length > THRESHOLD_ELEMENTS;
+        }
+        return false;
+    }
+
+    /**
+     * Displays the value, returning once all of it (up to the limit) was sent or the thread was interrupted.
+     */
+    public void stream(Object value) {
+        Source source = sourceOf(value);
+        StringBuilder chunk = new StringBuilder(CHUNK_CHARS);
+        long sent = 0;
+        int chunks = 0;
+        boolean more = true;
+        while (more && sent < limits.maxChars()) {
+            if (chunks > 0) {
+                try {
+                    Thread.sleep(CHUNK_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            chunk.setLength(0);
+            more = source.appendTo(chunk, (int) Math.min(CHUNK_CHARS, limits.maxChars() - sent));
+            if (chunk.length() == 0) {
+                break;
+            }
+            System.out.print(chunk);
+            System.out.flush();
+            sent += chunk.length();
+            chunks++;
+        }
+        if (more) {
+            System.out.println("\n… " + source.remaining() + " not shown");
+        }
+        System.out.flush();
+        logger.fine("Streamed " + sent + " characters in " + chunks + " messages");
+    }
+
+    /**
+     * Text of a value, produced incrementally.
+     */
+    interface Source {
+        /**
+         * Appends until the text reaches the given length.
+         *
+         * @return whether there is more text
+         */
+        boolean appendTo(StringBuilder text, int length);
+
+        /**
+         * @return description of what was not appended yet
+         */
+        String remaining();
+    }
+
+    /**
+     * @return where to end text appended from the position to have at most the room, ending
+     *         before a surrogate pair instead of splitting it, or after it if nothing else fits
+     */
+    static int end(CharSequence value, int position, int room) {
+        int end = Math.min(value.length(), position + Math.max(0, room));
+        if (end < value.length() && end > position && Character.isHighSurrogate(value.charAt(end - 1))) {
+            return end - 1 > position ? end - 1 : end + 1;
+        }
+        return end;
+    }
+
+    static Source sourceOf(Object value) {
+        if (value instanceof CharSequence) {
+            return new CharSequenceSource((CharSequence) value);
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            return new ElementSource(map.entrySet().iterator(), map.size(), "{", "}");
+        }
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            return new ElementSource(Arrays.asList(array).iterator(), array.length, "[", "]");
+        }
+        Collection<?> collection = (Collection<?>) value;
+        return new ElementSource(collection.iterator(), collection.size(), "[", "]");
+    }
+
+    static class CharSequenceSource implements Source {
+        private final CharSequence value;
+        private int position;
+
+        CharSequenceSource(CharSequence value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder text, int length) {
+            int end = end(value, position, length - text.length());
+            text.append(value, position, end);
+            position = end;
+            return position < value.length();
+        }
+
+        @Override
+        public String remaining() {
+            return (value.length() - position) + " characters";
+        }
+    }
+
+    static class ElementSource implements Source {
+        private final Iterator<?> elements;
+        private final int size;
+        private final String close;
+        // the text of the current element, appended up to pendingPosition
+        private String pending;
+        private int pendingPosition;
+        private int consumed;
+        private boolean closed;
+
+        ElementSource(Iterator<?> elements, int size, String open, String close) {
+            this.elements = elements;
+            this.size = size;
+            this.close = close;
+            this.pending = open;
+        }
+
+        @Override
+        public boolean appendTo(StringBuilder text, int length) {
+            while (text.length() < length) {
+                if (pending == null) {
+                    if (elements.hasNext()) {
+                        pending = (consumed > 0 ? ", " : "") + String.valueOf(elements.next());
+                        consumed++;
+                    } else if (!closed) {
+                        pending = close;
+                        closed = true;
+                    } else {
+                        return false;
+                    }
+                }
+                int end = end(pending, pendingPosition, length - text.length());
+                text.append(pending, pendingPosition, end);
+                pendingPosition = end;
+                if (pendingPosition == pending.length()) {
+                    pending = null;
+                    pendingPosition = 0;
+                }
+            }
+            return !closed || pending != null;
+        }
+
+        @Override
+        public String remaining() {
+            return (size - consumed) + " more elements";
+        }
+    }
+}
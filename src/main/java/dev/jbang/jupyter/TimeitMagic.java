@@ -0,0 +1,212 @@
+package dev.jbang.jupyter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import org.dflib.jjava.jupyter.kernel.display.DisplayData;
+import org.dflib.jjava.jupyter.kernel.magic.CellMagic;
+import org.dflib.jjava.jupyter.kernel.magic.LineMagic;
+
+/**
+ * Measures how long code takes once the JIT had a chance to compile it.
+ *
+ * The code is compiled by JShell into a {@link Callable} and, as snippets execute in the
+ * kernel JVM, called directly from here: first the batch size is calibrated so a batch takes
+ * about the target time, then warmup batches run, then the measured ones. Results are
+ * consumed so the JIT can't eliminate the code. The report shows the time per call averaged
+ * over each measured batch: mean, spread, fastest and slowest batch. Single calls are not
+ * timed, so there are no per-call percentiles.
+ *
+ * The line form gets its code as the arguments jjava split on whitespace, joined again with
+ * single spaces; string literals may not survive that, so use the cell form for code with them.
+ *
+ * Usage:
+ * %timeit [-w warmup] [-i iterations] [-t batch millis] expression or statement
+ * %%timeit [-w warmup] [-i iterations] [-t batch millis]
+ * statements, optionally ending with a return of the value to consume
+ */
+public class TimeitMagic implements LineMagic<Void, JBangKernel>, CellMagic<Void, JBangKernel> {
+
+    static final Logger logger = Logger.getLogger(TimeitMagic.class.getName());
+
+    static final int DEFAULT_WARMUP = 5;
+    static final int DEFAULT_ITERATIONS = 10;
+    static final long DEFAULT_BATCH_MILLIS = 50;
+
+    record Options(int warmup, int iterations, long batchNanos, List<String> rest) {
+    }
+
+    record Result(long batchSize, double[] nanosPerOp) {
+    }
+
+    @Override
+    public Void eval(JBangKernel kernel, List<String> args) throws Exception {
+        Options options = parseOptions(args);
+        if (options.rest().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Usage: %timeit [-w warmup] [-i iterations] [-t batch millis] <expression or statement>,"
+                            + " or %%timeit for code with string literals");
+        }
+        String code = String.join(" ", options.rest());
+        Callable<?> callable = compile(kernel,
+                "() -> (" + code + ")",
+                "() -> { " + code + (code.trim().endsWith(";") ? "" : ";") + " return null; }");
+        report(kernel, code, measure(callable, options));
+        return null;
+    }
+
+    @Override
+    public Void eval(JBangKernel kernel, List<String> args, String body) throws Exception {
+        Options options = parseOptions(args);
+        Callable<?> callable = compile(kernel,
+                "() -> {\n" + body + "\n}",
+                "() -> {\n" + body + "\nreturn null; }");
+        report(kernel, null, measure(callable, options));
+        return null;
+    }
+
+    static Options parseOptions(List<String> args) {
+        int warmup = DEFAULT_WARMUP;
+        int iterations = DEFAULT_ITERATIONS;
+        long batchMillis = DEFAULT_BATCH_MILLIS;
+        int i = 0;
+        while (i + 1 < args.size() && List.of("-w", "-i", "-t").contains(args.get(i))) {
+            int value;
+            try {
+                value = Integer.parseInt(args.get(i + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(args.get(i) + " needs a number, got '" + args.get(i + 1) + "'");
+            }
+            switch (args.get(i)) {
+                case "-w":
+                    warmup = Math.max(0, value);
+                    break;
+                case "-i":
+                    iterations = Math.max(1, value);
+                    break;
+                default:
+                    batchMillis = Math.max(1, value);
+            }
+            i += 2;
+        }
+        return new Options(warmup, iterations, batchMillis * 1_000_000, args.subList(i, args.size()));
+    }
+
+    /**
+     * Compiles the first candidate lambda that JShell accepts, e.g. the expression form
+     * before the statement form.
+     */
+    static Callable<?> compile(JBangKernel kernel, String... lambdas) {
+        RuntimeException failure = null;
+        for (String lambda : lambdas) {
+            try {
+                return (Callable<?>) kernel.evalRaw("(java.util.concurrent.Callable<Object>) " + lambda);
+            } catch (RuntimeException e) {
+                logger.fine("Could not compile " + lambda + ": " + e);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        throw failure;
+    }
+
+    static Result measure(Callable<?> callable, Options options) throws Exception {
+        Blackhole blackhole = new Blackhole();
+
+        // calibrate: grow the batch until it takes at least a tenth of the target,
+        // then scale it to the target
+        long batchSize = 1;
+        long elapsed = runBatch(callable, batchSize, blackhole);
+        while (elapsed < options.batchNanos() / 10 && batchSize < Long.MAX_VALUE / 2) {
+            batchSize *= 2;
+            elapsed = runBatch(callable, batchSize, blackhole);
+        }
+        if (elapsed > 0 && elapsed < options.batchNanos()) {
+            batchSize = Math.max(1, (long) (batchSize * ((double) options.batchNanos() / elapsed)));
+        }
+
+        for (int i = 0; i < options.warmup(); i++) {
+            runBatch(callable, batchSize, blackhole);
+        }
+
+        double[] nanosPerOp = new double[options.iterations()];
+        for (int i = 0; i < options.iterations(); i++) {
+            nanosPerOp[i] = (double) runBatch(callable, batchSize, blackhole) / batchSize;
+        }
+        return new Result(batchSize, nanosPerOp);
+    }
+
+    private static long runBatch(Callable<?> callable, long batchSize, Blackhole blackhole) throws Exception {
+        long start = System.nanoTime();
+        for (long i = 0; i < batchSize; i++) {
+            blackhole.consume(callable.call());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Keeps results alive without doing observable work for them.
+     */
+    static final class Blackhole {
+        volatile Object sink;
+        private int count;
+
+        void consume(Object value) {
+            // the rare store (and the impossible comparison) make the value needed
+            if (value == this || (++count & 0xFFFFF) == 0) {
+                sink = value;
+            }
+        }
+    }
+
+    private void report(JBangKernel kernel, String code, Result result) {
+        double[] sorted = result.nanosPerOp().clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        double variance = Arrays.stream(sorted).map(v -> (v - mean) * (v - mean)).sum() / Math.max(1, sorted.length - 1);
+        double stddev = Math.sqrt(variance);
+
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] { "mean", format(mean) + " ± " + format(stddev) });
+        rows.add(new String[] { "min", format(sorted[0]) });
+        rows.add(new String[] { "max", format(sorted[sorted.length - 1]) });
+        String summary = "per call, averaged over each of " + sorted.length + " batches of " + result.batchSize()
+                + " calls";
+
+        StringBuilder text = new StringBuilder();
+        if (code != null) {
+            text.append(code).append('\n');
+        }
+        StringBuilder html = new StringBuilder("<table>");
+        if (code != null) {
+            html.append("<caption><code>").append(JBangInfoRenderer.escape(code)).append("</code></caption>");
+        }
+        for (String[] row : rows) {
+            text.append(String.format("%-5s %s%n", row[0], row[1]));
+            html.append("<tr><th style='text-align:left'>").append(row[0]).append("</th><td style='text-align:right'>")
+                    .append(row[1]).append("</td></tr>");
+        }
+        text.append(summary);
+        html.append("<tr><td colspan='2'><em>").append(summary).append("</em></td></tr></table>");
+
+        DisplayData data = new DisplayData(text.toString());
+        data.putHTML(html.toString());
+        kernel.display(data);
+    }
+
+    static String format(double nanos) {
+        if (nanos < 1_000) {
+            return String.format(Locale.ROOT, "%.2f ns", nanos);
+        } else if (nanos < 1_000_000) {
+            return String.format(Locale.ROOT, "%.2f µs", nanos / 1_000);
+        } else if (nanos < 1_000_000_000) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000);
+        }
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1_000_000_000);
+    }
+}